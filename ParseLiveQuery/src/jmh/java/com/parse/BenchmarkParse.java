@@ -0,0 +1,20 @@
+package com.parse;
+
+/**
+ * Sets up the Parse SDK the way the unit tests do, so benchmarks can decode objects without an
+ * Android context.
+ */
+public class BenchmarkParse {
+
+    public static void initialize() {
+        Parse.Configuration configuration = new Parse.Configuration.Builder(null)
+                .applicationId("benchmark")
+                .build();
+        ParsePlugins.initialize(null, configuration);
+    }
+
+    public static void reset() {
+        ParseCorePlugins.getInstance().reset();
+        ParsePlugins.reset();
+    }
+}
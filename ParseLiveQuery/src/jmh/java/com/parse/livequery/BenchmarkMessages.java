@@ -0,0 +1,72 @@
+package com.parse.livequery;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds server messages of a given shape for the benchmarks.
+ */
+class BenchmarkMessages {
+
+    /* package */ static final int REQUEST_ID = 1;
+    /* package */ static final int UNKNOWN_REQUEST_ID = 2;
+
+    /**
+     * @param fieldCount The number of fields besides the built-in ones. Every tenth one is a nested
+     *                   object, the others alternate between strings, numbers and arrays.
+     */
+    /* package */ static JSONObject object(int fieldCount) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("className", "Post");
+        object.put("objectId", "a1b2c3d4e5");
+        object.put("createdAt", "2020-01-01T00:00:00.000Z");
+        object.put("updatedAt", "2020-01-02T00:00:00.000Z");
+        for (int i = 0; i < fieldCount; i++) {
+            String key = "field" + i;
+            if (i % 10 == 9) {
+                object.put(key, new JSONObject().put("__type", "Pointer").put("className", "User").put("objectId", "u" + i));
+            } else if (i % 3 == 0) {
+                object.put(key, "value of field " + i);
+            } else if (i % 3 == 1) {
+                object.put(key, i * 1.5);
+            } else {
+                object.put(key, new JSONArray().put(i).put("tag" + i).put(true));
+            }
+        }
+        return object;
+    }
+
+    /* package */ static String event(String op, int requestId, int fieldCount) throws JSONException {
+        return new JSONObject()
+                .put("op", op)
+                .put("clientId", 42)
+                .put("requestId", requestId)
+                .put("object", object(fieldCount))
+                .toString();
+    }
+
+    /* package */ static String message(String op) throws JSONException {
+        switch (op) {
+            case "connected":
+                return new JSONObject().put("op", "connected").put("clientId", 42).toString();
+            case "subscribed":
+                return new JSONObject().put("op", "subscribed").put("clientId", 42).put("requestId", REQUEST_ID).toString();
+            case "error":
+                return new JSONObject().put("op", "error").put("code", 1).put("error", "Server error")
+                        .put("reconnect", true).toString();
+            case "unknown":
+                // An update for a request id nobody subscribed to, which is skipped without reading the object
+                return event("update", UNKNOWN_REQUEST_ID, 10);
+            default:
+                return event(op, REQUEST_ID, 10);
+        }
+    }
+
+    /* package */ static final ServerMessage.Filter FILTER = new ServerMessage.Filter() {
+        @Override
+        public boolean wantsObject(int requestId) {
+            return requestId == REQUEST_ID;
+        }
+    };
+}
@@ -0,0 +1,57 @@
+package com.parse.livequery;
+
+import com.parse.BenchmarkParse;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the object of an event into a {@link ParseObject}, by number of fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int fieldCount;
+
+    private JSONObject object;
+    private ParseQuery.State<ParseObject> state;
+
+    @Setup
+    public void setUp() throws JSONException {
+        BenchmarkParse.initialize();
+        object = BenchmarkMessages.object(fieldCount);
+        state = new ParseQuery<>("Post").getBuilder().build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkParse.reset();
+    }
+
+    @Benchmark
+    public ParseObject decode() {
+        return new LiveQueryEvent<>(SubscriptionHandling.Event.UPDATE, object, state).getObject();
+    }
+}
@@ -0,0 +1,92 @@
+package com.parse.livequery;
+
+import com.parse.BenchmarkParse;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fanning an event out to the callbacks of a subscription, by number of callbacks. Callbacks that
+ * take a {@link LiveQueryEvent} only look at its type; callbacks that take the object make the
+ * event decode it once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int callbackCount;
+
+    private JSONObject object;
+    private ParseQuery<ParseObject> query;
+    private ParseQuery.State<ParseObject> state;
+    private Subscription<ParseObject> liveQueryEventsSubscription;
+    private Subscription<ParseObject> eventsSubscription;
+    private int delivered;
+
+    @Setup
+    public void setUp() throws JSONException {
+        BenchmarkParse.initialize();
+        object = BenchmarkMessages.object(10);
+        query = new ParseQuery<>("Post");
+        state = query.getBuilder().build();
+
+        liveQueryEventsSubscription = new Subscription<>(BenchmarkMessages.REQUEST_ID, query, state);
+        eventsSubscription = new Subscription<>(BenchmarkMessages.REQUEST_ID, query, state);
+        for (int i = 0; i < callbackCount; i++) {
+            liveQueryEventsSubscription.handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<ParseObject>() {
+                @Override
+                public void onEvents(ParseQuery<ParseObject> query, LiveQueryEvent<ParseObject> event) {
+                    if (event.getEvent() == SubscriptionHandling.Event.UPDATE) {
+                        delivered++;
+                    }
+                }
+            });
+            eventsSubscription.handleEvents(new SubscriptionHandling.HandleEventsCallback<ParseObject>() {
+                @Override
+                public void onEvents(ParseQuery<ParseObject> query, SubscriptionHandling.Event event, ParseObject object) {
+                    if (object != null) {
+                        delivered++;
+                    }
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkParse.reset();
+    }
+
+    @Benchmark
+    public int liveQueryEventsCallbacks() {
+        liveQueryEventsSubscription.didReceive(new LiveQueryEvent<>(SubscriptionHandling.Event.UPDATE, object, state), query);
+        return delivered;
+    }
+
+    @Benchmark
+    public int eventsCallbacks() {
+        eventsSubscription.didReceive(new LiveQueryEvent<>(SubscriptionHandling.Event.UPDATE, object, state), query);
+        return delivered;
+    }
+}
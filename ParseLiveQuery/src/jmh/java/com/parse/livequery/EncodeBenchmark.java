@@ -0,0 +1,76 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a subscribe operation, for a query with a single constraint and for one that matches
+ * three levels of inner queries. {@code encode} encodes the query every time, as on the first
+ * subscribe; {@code encodeCached} splices the query encoded once, as on a resubscribe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"simple", "nested"})
+    public String shape;
+
+    private final JsonLiveQueryCodec codec = new JsonLiveQueryCodec();
+    private ParseQuery.State<ParseObject> state;
+    private String encodedQuery;
+
+    @Setup
+    public void setUp() throws JSONException {
+        ParseQuery<ParseObject> query;
+        if ("simple".equals(shape)) {
+            query = new ParseQuery<>("Post").whereEqualTo("published", true);
+        } else {
+            ParseQuery<ParseObject> organization = new ParseQuery<>("Organization")
+                    .whereEqualTo("name", "Parse")
+                    .whereContainedIn("plan", Arrays.asList("free", "pro", "enterprise"));
+            ParseQuery<ParseObject> team = new ParseQuery<>("Team")
+                    .whereMatchesQuery("organization", organization)
+                    .whereGreaterThan("size", 3);
+            ParseQuery<ParseObject> author = new ParseQuery<>("_User")
+                    .whereMatchesQuery("team", team)
+                    .whereExists("email");
+            query = new ParseQuery<>("Post")
+                    .whereMatchesQuery("author", author)
+                    .whereEqualTo("published", true)
+                    .whereContainsAll("tags", Arrays.asList("android", "livequery"))
+                    .whereLessThan("score", 100);
+        }
+        state = query.getBuilder().build();
+        encodedQuery = codec.encodeQuery(state);
+    }
+
+    @Benchmark
+    public String encode() throws JSONException {
+        return codec.encode(new SubscribeClientOperation<>(BenchmarkMessages.REQUEST_ID, state, "r:sessionToken"));
+    }
+
+    @Benchmark
+    public String encodeCached() throws JSONException {
+        return codec.encode(new SubscribeClientOperation<>(BenchmarkMessages.REQUEST_ID, state, encodedQuery, "r:sessionToken"));
+    }
+}
@@ -0,0 +1,44 @@
+package com.parse.livequery;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a frame read from the socket, per type of message. Object events carry an object with ten
+ * fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerMessageBenchmark {
+
+    @Param({"connected", "subscribed", "error", "create", "update", "delete", "unknown"})
+    public String op;
+
+    private String message;
+
+    @Setup
+    public void setUp() throws JSONException {
+        message = BenchmarkMessages.message(op);
+    }
+
+    @Benchmark
+    public ServerMessage parse() throws JSONException {
+        return ServerMessage.parse(message, BenchmarkMessages.FILTER);
+    }
+}
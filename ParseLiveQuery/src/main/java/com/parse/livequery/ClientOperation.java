@@ -1,8 +1,14 @@
 package com.parse.livequery;
 
+import android.util.JsonWriter;
+
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.io.IOException;
 
 abstract class ClientOperation {
-     abstract JSONObject getJSONObjectRepresentation() throws JSONException;
+    /**
+     * Writes the operation as a single JSON object.
+     */
+    abstract void writeTo(JsonWriter writer) throws IOException, JSONException;
 }
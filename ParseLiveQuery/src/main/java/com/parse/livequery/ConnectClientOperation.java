@@ -1,7 +1,8 @@
 package com.parse.livequery;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import android.util.JsonWriter;
+
+import java.io.IOException;
 
 class ConnectClientOperation extends ClientOperation {
 
@@ -14,11 +15,15 @@ class ConnectClientOperation extends ClientOperation {
     }
 
     @Override
-    JSONObject getJSONObjectRepresentation() throws JSONException {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("op", "connect");
-        jsonObject.put("applicationId", applicationId);
-        jsonObject.put("sessionToken", sessionToken);
-        return jsonObject;
+    void writeTo(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("op").value("connect");
+        if (applicationId != null) {
+            writer.name("applicationId").value(applicationId);
+        }
+        if (sessionToken != null) {
+            writer.name("sessionToken").value(sessionToken);
+        }
+        writer.endObject();
     }
 }
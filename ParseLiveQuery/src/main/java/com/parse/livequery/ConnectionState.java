@@ -0,0 +1,108 @@
+package com.parse.livequery;
+
+import java.net.URI;
+
+/**
+ * The state of a client's connection: which socket is current, how far it got, and whether the app
+ * asked to disconnect.
+ * <p>
+ * Instances are immutable. The client keeps the current one in an atomic reference and moves to the
+ * next with a compare-and-set, so connecting never blocks and two threads racing to replace the
+ * same socket open only one. Every socket is numbered with a generation, and its callbacks carry
+ * that number: once a socket has been replaced, whatever it still reports is dropped with a single
+ * comparison.
+ */
+class ConnectionState {
+
+    enum Phase {
+        /** No socket, or the socket closed. */
+        DISCONNECTED,
+        /** The socket is opening. */
+        CONNECTING,
+        /** The socket is open and the connect operation was sent. */
+        OPEN,
+        /** The server confirmed the connection; operations can be written. */
+        CONNECTED,
+        /** The app disconnected and the socket is closing. */
+        DISCONNECTING
+    }
+
+    /* package */ static final ConnectionState INITIAL = new ConnectionState(0, Phase.DISCONNECTED, null, null, false);
+
+    private final int generation;
+    private final Phase phase;
+    private final WebSocketClient client;
+    private final URI uri;
+    private final boolean userInitiatedDisconnect;
+
+    private ConnectionState(int generation, Phase phase, WebSocketClient client, URI uri, boolean userInitiatedDisconnect) {
+        this.generation = generation;
+        this.phase = phase;
+        this.client = client;
+        this.uri = uri;
+        this.userInitiatedDisconnect = userInitiatedDisconnect;
+    }
+
+    /* package */ int getGeneration() {
+        return generation;
+    }
+
+    /* package */ Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The socket of this generation, or null if there is none or the app disconnected.
+     */
+    /* package */ WebSocketClient getClient() {
+        return client;
+    }
+
+    /* package */ URI getUri() {
+        return uri;
+    }
+
+    /* package */ boolean isUserInitiatedDisconnect() {
+        return userInitiatedDisconnect;
+    }
+
+    /* package */ boolean is(int generation, Phase... phases) {
+        if (this.generation != generation) {
+            return false;
+        }
+        for (Phase candidate : phases) {
+            if (phase == candidate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The state of a new socket replacing this one, with the next generation.
+     */
+    /* package */ ConnectionState connecting(WebSocketClient client, URI uri) {
+        return new ConnectionState(generation + 1, Phase.CONNECTING, client, uri, false);
+    }
+
+    /* package */ ConnectionState withPhase(Phase phase) {
+        return new ConnectionState(generation, phase, client, uri, userInitiatedDisconnect);
+    }
+
+    /**
+     * @return The state after the app disconnected. The generation is kept so a closing socket still
+     * reports its close.
+     */
+    /* package */ ConnectionState disconnecting() {
+        return new ConnectionState(generation, phase == Phase.DISCONNECTED ? Phase.DISCONNECTED : Phase.DISCONNECTING,
+                null, uri, true);
+    }
+
+    /**
+     * @param userInitiated Whether the app caused the close.
+     * @return The state after the socket closed.
+     */
+    /* package */ ConnectionState closed(boolean userInitiated) {
+        return new ConnectionState(generation, Phase.DISCONNECTED, client, uri, userInitiated);
+    }
+}
@@ -0,0 +1,141 @@
+package com.parse.livequery;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the live query server to connect to.
+ * <p>
+ * The configured endpoints are tried in order of preference, skipping those that failed more often
+ * since they last accepted a connection, so a client sticks with an endpoint that works rather than
+ * moving back and forth. An endpoint the server redirects us to is used until it fails once; after
+ * that, the configured endpoints take over again. So do they when servers keep redirecting the client
+ * without ever confirming a subscription, e.g. because they redirect to each other.
+ */
+class EndpointSelector {
+
+    /* package */ static final int MAX_CONSECUTIVE_REDIRECTS = 5;
+
+    private static class Endpoint {
+
+        private final URI uri;
+        private int failures = 0;
+
+        private Endpoint(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    // In order of preference
+    private final List<Endpoint> endpoints;
+    private Endpoint redirect;
+    private Endpoint current;
+    private int consecutiveRedirects = 0;
+
+    /* package */ EndpointSelector(URI primary, List<URI> fallbacks) {
+        endpoints = new ArrayList<>(fallbacks.size() + 1);
+        endpoints.add(new Endpoint(primary));
+        for (URI fallback : fallbacks) {
+            endpoints.add(new Endpoint(fallback));
+        }
+        current = endpoints.get(0);
+    }
+
+    /**
+     * @return The endpoint to connect to next.
+     */
+    /* package */ synchronized URI current() {
+        return current.uri;
+    }
+
+    /**
+     * Moves to the endpoint the server redirected us to, unless the client was already redirected
+     * {@link #MAX_CONSECUTIVE_REDIRECTS} times in a row. It then moves back to the healthiest
+     * configured endpoint, or stays where it is if it is on one already.
+     *
+     * @return The endpoint to connect to next, or null to keep the current connection.
+     */
+    /* package */ synchronized URI redirect(URI uri) {
+        if (consecutiveRedirects >= MAX_CONSECUTIVE_REDIRECTS) {
+            if (current != redirect) {
+                return null;
+            }
+            redirect = null;
+            current = healthiest();
+            return current.uri;
+        }
+        consecutiveRedirects++;
+        Endpoint configured = find(uri);
+        if (configured != null && configured != redirect) {
+            redirect = null;
+            current = configured;
+        } else {
+            redirect = new Endpoint(uri);
+            current = redirect;
+        }
+        return current.uri;
+    }
+
+    /**
+     * Records that the server at the current endpoint confirmed a subscription, so the redirects that
+     * led to it are not counted against later ones.
+     */
+    /* package */ synchronized void settled() {
+        consecutiveRedirects = 0;
+    }
+
+    /**
+     * Records that the server at the given endpoint accepted a connection.
+     */
+    /* package */ synchronized void connected(URI uri) {
+        Endpoint endpoint = find(uri);
+        if (endpoint != null) {
+            endpoint.failures = 0;
+        }
+    }
+
+    /**
+     * Records that a connection to the given endpoint could not be established, and moves to the
+     * healthiest endpoint if it was the current one.
+     *
+     * @return The endpoint to connect to next.
+     */
+    /* package */ synchronized URI failed(URI uri) {
+        Endpoint endpoint = find(uri);
+        if (endpoint == null) {
+            return current.uri;
+        }
+        if (endpoint == redirect) {
+            redirect = null;
+        } else {
+            endpoint.failures++;
+        }
+        if (endpoint == current) {
+            current = healthiest();
+        }
+        return current.uri;
+    }
+
+    private Endpoint healthiest() {
+        Endpoint healthiest = endpoints.get(0);
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.failures < healthiest.failures) {
+                healthiest = endpoint;
+            }
+        }
+        return healthiest;
+    }
+
+    private Endpoint find(URI uri) {
+        if (redirect != null && redirect.uri.equals(uri)) {
+            return redirect;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.uri.equals(uri)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,198 @@
+package com.parse.livequery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps counters and a delivery latency histogram in memory, to be read and exported periodically.
+ * <p>
+ * Latencies are counted in buckets whose bounds are powers of two nanoseconds, so percentiles are
+ * accurate to within a factor of two.
+ */
+public class InMemoryLiveQueryMetrics implements LiveQueryMetrics {
+
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong decodeFailures = new AtomicLong();
+    private final AtomicInteger inboundQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxInboundQueueDepth = new AtomicInteger();
+    private final AtomicLong eventsDropped = new AtomicLong();
+    private final AtomicLong eventsDelivered = new AtomicLong();
+    // Only of current subscriptions, as request ids keep growing; late events of a subscription that
+    // is gone are not counted, so it is not brought back
+    private final ConcurrentHashMap<Integer, AtomicLong> eventsDeliveredByRequestId = new ConcurrentHashMap<>();
+    // Bucket i counts latencies below 2^i nanoseconds and at least 2^(i - 1)
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(64);
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong reconnectAttempts = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+
+    @Override
+    public void onMessageReceived(int bytes) {
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(bytes);
+    }
+
+    @Override
+    public void onMessageSent(int bytes) {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    @Override
+    public void onDecodeFailure() {
+        decodeFailures.incrementAndGet();
+    }
+
+    @Override
+    public void onInboundQueueDepth(int depth) {
+        inboundQueueDepth.set(depth);
+        int max;
+        while (depth > (max = maxInboundQueueDepth.get())) {
+            if (maxInboundQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onEventDropped() {
+        eventsDropped.incrementAndGet();
+    }
+
+    @Override
+    public void onEventDelivered(int requestId, long latencyNanos) {
+        eventsDelivered.incrementAndGet();
+        AtomicLong count = eventsDeliveredByRequestId.get(requestId);
+        if (count != null) {
+            count.incrementAndGet();
+        }
+
+        long latency = Math.max(0, latencyNanos);
+        latencyBuckets.incrementAndGet(Math.min(63, 64 - Long.numberOfLeadingZeros(latency)));
+        long max;
+        while (latency > (max = maxLatencyNanos.get())) {
+            if (maxLatencyNanos.compareAndSet(max, latency)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onSubscribed(int requestId) {
+        eventsDeliveredByRequestId.putIfAbsent(requestId, new AtomicLong());
+    }
+
+    @Override
+    public void onUnsubscribed(int requestId) {
+        eventsDeliveredByRequestId.remove(requestId);
+    }
+
+    @Override
+    public void onReconnectAttempt() {
+        reconnectAttempts.incrementAndGet();
+    }
+
+    @Override
+    public void onConnected() {
+        connects.incrementAndGet();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getDecodeFailures() {
+        return decodeFailures.get();
+    }
+
+    /**
+     * @return The number of events that were waiting to be handled when an event was last queued or
+     * taken from the queue.
+     */
+    public int getInboundQueueDepth() {
+        return inboundQueueDepth.get();
+    }
+
+    public int getMaxInboundQueueDepth() {
+        return maxInboundQueueDepth.get();
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.get();
+    }
+
+    public long getEventsDelivered() {
+        return eventsDelivered.get();
+    }
+
+    /**
+     * @param requestId The request id of a subscription.
+     * @return The number of events delivered to the subscription, or 0 if it is not subscribed.
+     */
+    public long getEventsDelivered(int requestId) {
+        AtomicLong count = eventsDeliveredByRequestId.get(requestId);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getReconnectAttempts() {
+        return reconnectAttempts.get();
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @param unit       The unit to return the latency in.
+     * @return An upper bound of the given percentile of the time from reading an event from the socket
+     * until its callbacks returned, or 0 if no event was delivered yet.
+     */
+    public long getDeliveryLatency(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long[] counts = new long[latencyBuckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencyBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return unit.convert(Math.min(upperBound, maxLatencyNanos.get()), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(maxLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxDeliveryLatency(TimeUnit unit) {
+        return unit.convert(maxLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+}
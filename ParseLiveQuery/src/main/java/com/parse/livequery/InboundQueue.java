@@ -0,0 +1,175 @@
+package com.parse.livequery;
+
+import org.json.JSONException;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Hands messages read from the socket to the dispatch executor, bounding the number of object events
+ * waiting to be handled. What happens to an event that arrives while the queue is full is decided by
+ * the {@link ParseLiveQueryClient.OverflowPolicy}.
+ * <p>
+ * Only object events count towards the capacity and may be dropped. Control messages such as
+ * {@code connected} or {@code subscribed} are always accepted.
+ */
+class InboundQueue {
+
+    interface Handler {
+        void handle(ServerMessage message);
+
+        /**
+         * Called when an event has been dropped or coalesced into another one.
+         */
+        void onDropped();
+    }
+
+    private final StripedExecutor executor;
+    private final int capacity;
+    private final ParseLiveQueryClient.OverflowPolicy policy;
+    private final Handler handler;
+    private final LiveQueryMetrics metrics;
+
+    // Oldest first
+    private final LinkedHashSet<Entry> pending = new LinkedHashSet<>();
+    private final Map<String, Entry> pendingByObject = new HashMap<>();
+
+    /* package */ InboundQueue(StripedExecutor executor, int capacity, ParseLiveQueryClient.OverflowPolicy policy, Handler handler) {
+        this(executor, capacity, policy, handler, LiveQueryMetrics.NO_OP);
+    }
+
+    /* package */ InboundQueue(StripedExecutor executor, int capacity, ParseLiveQueryClient.OverflowPolicy policy,
+                               Handler handler, LiveQueryMetrics metrics) {
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a message to be handled after every message previously queued for the same key.
+     *
+     * @param message The message to handle.
+     * @param key     The key messages are ordered by.
+     */
+    /* package */ void offer(ServerMessage message, int key) {
+        Entry entry = new Entry(message);
+        if (!message.isObjectEvent()) {
+            executor.forKey(key).execute(entry);
+            return;
+        }
+
+        Entry evicted = null;
+        boolean accepted = true;
+        int depth;
+        synchronized (this) {
+            String objectKey = policy == ParseLiveQueryClient.OverflowPolicy.COALESCE ? objectKey(message) : null;
+            while (pending.size() >= capacity) {
+                if (policy == ParseLiveQueryClient.OverflowPolicy.BLOCK) {
+                    try {
+                        wait();
+                        continue;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        accepted = false;
+                        break;
+                    }
+                }
+                if (policy == ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST) {
+                    accepted = false;
+                    break;
+                }
+                if (objectKey != null) {
+                    Entry existing = pendingByObject.get(objectKey);
+                    if (existing != null) {
+                        existing.message = existing.message.coalesce(message);
+                        accepted = false;
+                        break;
+                    }
+                }
+                evicted = pending.iterator().next();
+                untrack(evicted);
+            }
+
+            if (accepted) {
+                entry.tracked = true;
+                entry.objectKey = objectKey;
+                pending.add(entry);
+                if (objectKey != null) {
+                    pendingByObject.put(objectKey, entry);
+                }
+            }
+            depth = pending.size();
+        }
+        metrics.onInboundQueueDepth(depth);
+
+        if (evicted != null) {
+            // Left in its stripe, where it does nothing once run, rather than searched for; only its
+            // payload is freed right away
+            evicted.message = null;
+            metrics.onEventDropped();
+            handler.onDropped();
+        }
+        if (accepted) {
+            executor.forKey(key).execute(entry);
+        } else {
+            metrics.onEventDropped();
+            handler.onDropped();
+        }
+    }
+
+    private void untrack(Entry entry) {
+        entry.done = true;
+        pending.remove(entry);
+        if (entry.objectKey != null && pendingByObject.get(entry.objectKey) == entry) {
+            pendingByObject.remove(entry.objectKey);
+        }
+    }
+
+    private static String objectKey(ServerMessage message) {
+        String objectId = message.getObjectId();
+        if (objectId == null) {
+            return null;
+        }
+        try {
+            return message.getRequestId() + ":" + objectId;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private class Entry implements Runnable {
+
+        private ServerMessage message;
+        private String objectKey;
+        private boolean tracked;
+        private boolean done;
+
+        private Entry(ServerMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            ServerMessage message;
+            if (tracked) {
+                int depth;
+                synchronized (InboundQueue.this) {
+                    if (done) {
+                        return;
+                    }
+                    untrack(this);
+                    message = this.message;
+                    depth = pending.size();
+                    InboundQueue.this.notifyAll();
+                }
+                metrics.onInboundQueueDepth(depth);
+            } else {
+                message = this.message;
+            }
+            handler.handle(message);
+        }
+    }
+}
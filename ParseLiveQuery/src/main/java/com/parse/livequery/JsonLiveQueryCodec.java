@@ -0,0 +1,120 @@
+package com.parse.livequery;
+
+import android.util.JsonWriter;
+
+import com.parse.ParseQuery;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+/**
+ * The JSON wire format of the live query server.
+ * <p>
+ * Operations are written straight into a buffer that is reused from one message to the next,
+ * without building a {@link JSONObject} first. A subscribe operation that carries its query already
+ * encoded is spliced together from it. Messages are read by {@link ServerMessage#parse}.
+ */
+class JsonLiveQueryCodec implements LiveQueryCodec {
+
+    private static final int INITIAL_CAPACITY = 256;
+    // A buffer grown past this by an unusually large message is not kept around
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    // Guarded by this
+    private StringWriter buffer = new StringWriter(INITIAL_CAPACITY);
+
+    @Override
+    public synchronized String encode(ClientOperation operation) throws JSONException {
+        if (operation instanceof SubscribeClientOperation) {
+            SubscribeClientOperation<?> subscribe = (SubscribeClientOperation<?>) operation;
+            if (subscribe.getEncodedQuery() != null) {
+                return encodeSubscribe(subscribe);
+            }
+        }
+
+        StringBuffer chars = buffer.getBuffer();
+        chars.setLength(0);
+        try {
+            JsonWriter writer = new JsonWriter(buffer);
+            operation.writeTo(writer);
+            writer.flush();
+            return chars.toString();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            if (chars.capacity() > MAX_RETAINED_CAPACITY) {
+                buffer = new StringWriter(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    private static String encodeSubscribe(SubscribeClientOperation<?> operation) {
+        String encodedQuery = operation.getEncodedQuery();
+        String sessionToken = operation.getSessionToken();
+        StringBuilder builder = new StringBuilder(encodedQuery.length() + 96);
+        builder.append("{\"op\":\"subscribe\",\"requestId\":").append(operation.getRequestId());
+        if (sessionToken != null) {
+            builder.append(",\"sessionToken\":").append(JSONObject.quote(sessionToken));
+        }
+        builder.append(",\"query\":").append(encodedQuery).append('}');
+        return builder.toString();
+    }
+
+    @Override
+    public String encodeQuery(ParseQuery.State<?> state) throws JSONException {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            SubscribeClientOperation.writeQuery(writer, state);
+            writer.flush();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            throw new JSONException(e.getMessage());
+        }
+        return out.toString();
+    }
+
+    @Override
+    public ServerMessage decode(String message, ServerMessage.Filter filter) throws JSONException {
+        return ServerMessage.parse(message, filter);
+    }
+
+    /**
+     * Writes a value as returned by the Parse encoders: a {@link JSONObject}, a {@link JSONArray}, a
+     * string, a number, a boolean or {@link JSONObject#NULL}.
+     */
+    /* package */ static void writeValue(JsonWriter writer, Object value) throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) value;
+            writer.beginObject();
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writer.name(key);
+                writeValue(writer, jsonObject.get(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < jsonArray.length(); i++) {
+                writeValue(writer, jsonArray.get(i));
+            }
+            writer.endArray();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else {
+            writer.value(value.toString());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.parse.livequery;
+
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+
+/**
+ * Turns the operations we send into messages, and the messages we receive into
+ * {@link ServerMessage}s. {@link JsonLiveQueryCodec} is used unless another one is configured, e.g.
+ * to compare implementations in benchmarks.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ */
+interface LiveQueryCodec {
+
+    String encode(ClientOperation operation) throws JSONException;
+
+    /**
+     * Encodes a query once for all the subscribe operations of a subscription. The result is passed
+     * back to {@link #encode} in {@link SubscribeClientOperation#getEncodedQuery()}.
+     *
+     * @param state The query.
+     * @return The query in a form this codec can splice into a subscribe operation, or null if it
+     * encodes the query along with each operation.
+     */
+    String encodeQuery(ParseQuery.State<?> state) throws JSONException;
+
+    /**
+     * @param message The message received.
+     * @param filter  Tells which object payloads will be consumed, so others need not be decoded.
+     */
+    ServerMessage decode(String message, ServerMessage.Filter filter) throws JSONException;
+}
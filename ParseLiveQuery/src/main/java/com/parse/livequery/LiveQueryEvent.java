@@ -0,0 +1,117 @@
+package com.parse.livequery;
+
+import com.parse.ParseDecoder;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONObject;
+
+/**
+ * An event received from the live query server for a subscription.
+ * <p>
+ * The object carried by the event is only decoded the first time {@link #getObject()} is called, so
+ * handlers that only care about the event type or the object id never pay for decoding it. With
+ * {@link ParseLiveQueryClient.Configuration.Builder#identityMap(int)}, it is decoded as soon as the
+ * event is received instead, as it changes an instance other events share.
+ */
+public class LiveQueryEvent<T extends ParseObject> {
+
+    private final SubscriptionHandling.Event event;
+    private final JSONObject json;
+    private final ParseQuery.State<T> state;
+    private final long receivedNanos;
+    private final ObjectIdentityMap identityMap;
+    private T object;
+
+    /* package */ LiveQueryEvent(SubscriptionHandling.Event event, JSONObject json, ParseQuery.State<T> state) {
+        this(event, json, state, 0);
+    }
+
+    /* package */ LiveQueryEvent(SubscriptionHandling.Event event, JSONObject json, ParseQuery.State<T> state, long receivedNanos) {
+        this(event, json, state, receivedNanos, null);
+    }
+
+    /**
+     * @param identityMap The identity map to decode the object through, or null to decode it into
+     *                    a new instance.
+     */
+    /* package */ LiveQueryEvent(SubscriptionHandling.Event event, JSONObject json, ParseQuery.State<T> state, long receivedNanos,
+                                 ObjectIdentityMap identityMap) {
+        this.event = event;
+        this.json = json;
+        this.state = state;
+        this.receivedNanos = receivedNanos;
+        this.identityMap = identityMap;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the event was read from the socket, or 0 if unknown.
+     */
+    /* package */ long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * Folds a newer event for the same object into this one, so that only the latest state of the
+     * object is delivered. An update keeps the type of the event it is folded into, any other event
+     * replaces it.
+     *
+     * @param newer The event that was received after this one.
+     * @return The event to deliver in place of both.
+     */
+    /* package */ LiveQueryEvent<T> coalesce(LiveQueryEvent<T> newer) {
+        if (newer.event != SubscriptionHandling.Event.UPDATE) {
+            return newer;
+        }
+        LiveQueryEvent<T> coalesced = new LiveQueryEvent<>(event, newer.json, newer.state, newer.receivedNanos, newer.identityMap);
+        // Decoding again through the identity map would merge the same state twice
+        coalesced.object = newer.peekObject();
+        return coalesced;
+    }
+
+    /**
+     * @return The type of the event.
+     */
+    public SubscriptionHandling.Event getEvent() {
+        return event;
+    }
+
+    /**
+     * @return The id of the object the event occurred on, without decoding the object.
+     */
+    public String getObjectId() {
+        return json.optString("objectId", null);
+    }
+
+    /**
+     * @return The class name of the object the event occurred on, without decoding the object.
+     */
+    public String getClassName() {
+        String className = json.optString("className", null);
+        return className != null ? className : state.className();
+    }
+
+    /**
+     * Decodes the object the event occurred on. The object is decoded once and the same instance is
+     * returned on later calls. With {@link ParseLiveQueryClient.Configuration.Builder#identityMap(int)},
+     * the object was merged into the instance earlier events on it were decoded into when the event
+     * was received, and that instance may hold the state of later events by now.
+     *
+     * @return The object the event occurred on.
+     */
+    public synchronized T getObject() {
+        if (object == null) {
+            object = identityMap != null
+                    ? identityMap.decode(json, state)
+                    : ParseObject.<T>fromJSON(json, state.className(), ParseDecoder.get(), state.selectedKeys());
+        }
+        return object;
+    }
+
+    /**
+     * @return The object if it has been decoded, else null.
+     */
+    private synchronized T peekObject() {
+        return object;
+    }
+}
@@ -0,0 +1,46 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.List;
+
+/**
+ * Ways of handling the events of a subscription beyond those of {@link SubscriptionHandling}. Every
+ * subscription returned by the clients {@link ParseLiveQueryClient.Factory} creates implements it;
+ * kept apart from {@link SubscriptionHandling} so existing implementations of that interface don't
+ * have to.
+ */
+public interface LiveQueryEventHandling<T extends ParseObject> extends SubscriptionHandling<T> {
+
+    /**
+     * Register a callback for when an event occurs. The callback receives a {@link LiveQueryEvent}
+     * whose object is only decoded if the callback asks for it.
+     *
+     * @param callback The callback to register.
+     * @return The same LiveQueryEventHandling, for easy chaining.
+     */
+    LiveQueryEventHandling<T> handleLiveQueryEvents(HandleLiveQueryEventsCallback<T> callback);
+
+    /**
+     * Register a callback that receives events on the main thread, batched per frame: events are
+     * collected as they arrive and delivered together on the next frame, so a burst of events costs
+     * the main thread a single callback and layout pass. Objects are decoded before the batch is
+     * handed to the main thread.
+     *
+     * @param callback The callback to register.
+     * @return The same LiveQueryEventHandling, for easy chaining.
+     */
+    LiveQueryEventHandling<T> handleEventBatchesOnMainThread(HandleEventBatchCallback<T> callback);
+
+    interface HandleLiveQueryEventsCallback<T extends ParseObject> {
+        void onEvents(ParseQuery<T> query, LiveQueryEvent<T> event);
+    }
+
+    interface HandleEventBatchCallback<T extends ParseObject> {
+        /**
+         * @param events The events received since the previous batch, in the order they were received.
+         */
+        void onEventBatch(ParseQuery<T> query, List<LiveQueryEvent<T>> events);
+    }
+}
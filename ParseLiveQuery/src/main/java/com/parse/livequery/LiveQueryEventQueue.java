@@ -0,0 +1,180 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The events of a subscription in a bounded queue, for consumers such as background workers that
+ * would rather pull events when they are ready than be called on executor threads. A worker
+ * typically blocks in {@link #take()} and then drains what else arrived with
+ * {@link #drainTo(Collection, int)}, handling a whole burst per wakeup.
+ * <p>
+ * Events are kept in a lock-free queue, and counted by two semaphores, one for the queued events and
+ * one for the free room, so neither adding nor taking an event takes a lock; only a consumer
+ * waiting for an event, or a producer waiting for room, blocks. What happens to an event that
+ * arrives while the queue is full is decided by the {@link ParseLiveQueryClient.OverflowPolicy};
+ * events can't be found in the queue by object without a lock, so
+ * {@link ParseLiveQueryClient.OverflowPolicy#COALESCE} is not supported.
+ *
+ * @param <T> The type of the objects.
+ */
+public class LiveQueryEventQueue<T extends ParseObject> {
+
+    /* package */ static final int DEFAULT_CAPACITY = 1000;
+
+    private final ConcurrentLinkedQueue<LiveQueryEvent<T>> events = new ConcurrentLinkedQueue<>();
+    // One permit per event in the queue, only released once the event was added
+    private final Semaphore queued = new Semaphore(0);
+    // One permit per free place in the queue
+    private final Semaphore room;
+    private final ParseLiveQueryClient.OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedEventCount = new AtomicLong();
+
+    /**
+     * Creates a queue of up to 1000 events that drops the oldest event when it is full.
+     *
+     * @param subscriptionHandling The subscription to queue the events of.
+     */
+    public LiveQueryEventQueue(LiveQueryEventHandling<T> subscriptionHandling) {
+        this(subscriptionHandling, DEFAULT_CAPACITY, ParseLiveQueryClient.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param subscriptionHandling The subscription to queue the events of.
+     * @param capacity             The maximum number of events in the queue.
+     * @param overflowPolicy       What to do with an event that arrives while the queue is full.
+     *                             {@link ParseLiveQueryClient.OverflowPolicy#BLOCK} waits on the
+     *                             client's dispatch thread, holding back the events of every
+     *                             subscription dispatched on it in the client's inbound queue.
+     */
+    public LiveQueryEventQueue(LiveQueryEventHandling<T> subscriptionHandling, int capacity,
+                               ParseLiveQueryClient.OverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("The overflow policy must not be null");
+        }
+        if (overflowPolicy == ParseLiveQueryClient.OverflowPolicy.COALESCE) {
+            throw new IllegalArgumentException("Events can't be coalesced in an event queue");
+        }
+        this.room = new Semaphore(capacity);
+        this.overflowPolicy = overflowPolicy;
+
+        subscriptionHandling.handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<T>() {
+            @Override
+            public void onEvents(ParseQuery<T> query, LiveQueryEvent<T> event) {
+                offer(event);
+            }
+        });
+    }
+
+    /**
+     * @return The oldest event, or null if there is none.
+     */
+    public LiveQueryEvent<T> poll() {
+        return queued.tryAcquire() ? remove() : null;
+    }
+
+    /**
+     * Waits until there is an event, or the timeout elapsed.
+     *
+     * @return The oldest event, or null if there was none in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public LiveQueryEvent<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queued.tryAcquire(timeout, unit) ? remove() : null;
+    }
+
+    /**
+     * Waits until there is an event.
+     *
+     * @return The oldest event.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public LiveQueryEvent<T> take() throws InterruptedException {
+        queued.acquire();
+        return remove();
+    }
+
+    /**
+     * Moves the oldest events to a collection, without waiting.
+     *
+     * @param collection The collection to add the events to, in order.
+     * @param maxEvents  The maximum number of events to move.
+     * @return The number of events moved.
+     */
+    public int drainTo(Collection<? super LiveQueryEvent<T>> collection, int maxEvents) {
+        if (maxEvents <= 0) {
+            return 0;
+        }
+        int count = queued.drainPermits();
+        if (count > maxEvents) {
+            queued.release(count - maxEvents);
+            count = maxEvents;
+        }
+        for (int i = 0; i < count; i++) {
+            collection.add(events.poll());
+        }
+        room.release(count);
+        return count;
+    }
+
+    /**
+     * @return The number of events in the queue.
+     */
+    public int size() {
+        return queued.availablePermits();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full.
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    // Private methods
+
+    private void offer(LiveQueryEvent<T> event) {
+        while (!room.tryAcquire()) {
+            if (overflowPolicy == ParseLiveQueryClient.OverflowPolicy.BLOCK) {
+                try {
+                    room.acquire();
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedEventCount.incrementAndGet();
+                    return;
+                }
+            }
+            if (overflowPolicy == ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST) {
+                droppedEventCount.incrementAndGet();
+                return;
+            }
+            // Take the place of the oldest event, unless a consumer took it first and made room
+            if (queued.tryAcquire()) {
+                events.poll();
+                droppedEventCount.incrementAndGet();
+                break;
+            }
+        }
+        events.add(event);
+        queued.release();
+    }
+
+    /**
+     * Removes the oldest event, once a permit for it was acquired.
+     */
+    private LiveQueryEvent<T> remove() {
+        LiveQueryEvent<T> event = events.poll();
+        room.release();
+        return event;
+    }
+}
@@ -69,6 +69,27 @@ public abstract class LiveQueryException extends Exception {
         }
     }
 
+    /**
+     * An error that is reported when received events were dropped or coalesced because the inbound
+     * queue was full.
+     */
+    public static class EventsDroppedException extends LiveQueryException {
+
+        private final int count;
+
+        /* package */ EventsDroppedException(int count) {
+            super(String.format(Locale.US, "Inbound queue full; %d events dropped", count));
+            this.count = count;
+        }
+
+        /**
+         * @return The number of events dropped since the last time this error was reported.
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
     /**
      * An error that is reported when the live query server encounters an internal error.
      */
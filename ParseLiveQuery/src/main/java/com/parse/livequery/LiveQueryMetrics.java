@@ -0,0 +1,122 @@
+package com.parse.livequery;
+
+/**
+ * Receives measurements from a {@link ParseLiveQueryClient} and the web sockets it uses, e.g. to
+ * export them to a monitoring system. Pass an implementation to
+ * {@link ParseLiveQueryClient.Configuration.Builder#metrics(LiveQueryMetrics)} and, when using a
+ * custom socket factory, to {@link OkHttp3SocketClientFactory#OkHttp3SocketClientFactory(okhttp3.OkHttpClient, LiveQueryMetrics)}.
+ * <p>
+ * Methods are called from the threads that send, read and handle messages, so they must be
+ * thread-safe and return quickly. Extend {@link NoOp} to only implement the measurements you need.
+ */
+public interface LiveQueryMetrics {
+
+    LiveQueryMetrics NO_OP = new NoOp();
+
+    /**
+     * @param bytes The size of a message read from the socket.
+     */
+    void onMessageReceived(int bytes);
+
+    /**
+     * @param bytes The size of a message written to the socket.
+     */
+    void onMessageSent(int bytes);
+
+    /**
+     * Called when a message could not be decoded.
+     */
+    void onDecodeFailure();
+
+    /**
+     * @param depth The number of events waiting to be handled, right after an event was queued or
+     *              taken from the queue.
+     */
+    void onInboundQueueDepth(int depth);
+
+    /**
+     * Called when an event is dropped or coalesced into another one because the inbound queue is full.
+     */
+    void onEventDropped();
+
+    /**
+     * Called once an event has been handed to the callbacks of every subscription it was received
+     * for. Subscriptions sharing a server subscription report their events once, under the request
+     * id they share.
+     *
+     * @param requestId    The request id of the subscription.
+     * @param latencyNanos The time from reading the event from the socket until its callbacks returned.
+     */
+    void onEventDelivered(int requestId, long latencyNanos);
+
+    /**
+     * Called when a subscription is created, before any of its events are delivered.
+     *
+     * @param requestId The request id of the subscription.
+     */
+    void onSubscribed(int requestId);
+
+    /**
+     * Called once a subscription is gone, so measurements kept per subscription can be discarded.
+     * Request ids are never reused by a client.
+     *
+     * @param requestId The request id of the subscription.
+     */
+    void onUnsubscribed(int requestId);
+
+    /**
+     * Called when an automatic reconnection attempt is made.
+     */
+    void onReconnectAttempt();
+
+    /**
+     * Called when the server has confirmed the connection.
+     */
+    void onConnected();
+
+    /**
+     * Ignores all measurements.
+     */
+    class NoOp implements LiveQueryMetrics {
+
+        @Override
+        public void onMessageReceived(int bytes) {
+        }
+
+        @Override
+        public void onMessageSent(int bytes) {
+        }
+
+        @Override
+        public void onDecodeFailure() {
+        }
+
+        @Override
+        public void onInboundQueueDepth(int depth) {
+        }
+
+        @Override
+        public void onEventDropped() {
+        }
+
+        @Override
+        public void onEventDelivered(int requestId, long latencyNanos) {
+        }
+
+        @Override
+        public void onSubscribed(int requestId) {
+        }
+
+        @Override
+        public void onUnsubscribed(int requestId) {
+        }
+
+        @Override
+        public void onReconnectAttempt() {
+        }
+
+        @Override
+        public void onConnected() {
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The events of a subscription as a Reactive Streams {@link Publisher}, so consumers such as RxJava
+ * get backpressure rather than being called as fast as events arrive.
+ * <p>
+ * Each subscriber receives the events that arrive after it subscribed, but only as many as it
+ * requested. The others wait in a buffer of its own, and what happens to an event that arrives while
+ * the buffer is full is decided by the {@link ParseLiveQueryClient.OverflowPolicy}. With
+ * {@link ParseLiveQueryClient.OverflowPolicy#BLOCK}, the client's dispatch thread waits for the
+ * slowest subscriber's demand. Subscriptions are spread over a few dispatch threads by request id, so
+ * this also holds back the events of every other subscription sharing that thread, and they wait in
+ * the client's inbound queue, whose own policy decides what happens once it is full. Prefer another
+ * policy unless the subscription has a dispatch thread of its own, as with a single subscription.
+ * <p>
+ * Subscribers complete once the subscription is unsubscribed, and fail with the first error reported
+ * for it, after receiving the events buffered until then.
+ *
+ * @param <T> The type of the objects.
+ */
+public class LiveQueryPublisher<T extends ParseObject> implements Publisher<LiveQueryEvent<T>> {
+
+    /* package */ static final int DEFAULT_BUFFER_CAPACITY = 128;
+
+    private final int bufferCapacity;
+    private final ParseLiveQueryClient.OverflowPolicy overflowPolicy;
+    private final List<Downstream> downstreams = new CopyOnWriteArrayList<>();
+    // Guarded by this
+    private boolean ended = false;
+    private Throwable endError;
+
+    /**
+     * Creates a publisher that buffers up to 128 events per subscriber, coalescing the events of an
+     * object once the buffer is full.
+     *
+     * @param subscriptionHandling The subscription to publish the events of.
+     */
+    public LiveQueryPublisher(LiveQueryEventHandling<T> subscriptionHandling) {
+        this(subscriptionHandling, DEFAULT_BUFFER_CAPACITY, ParseLiveQueryClient.OverflowPolicy.COALESCE);
+    }
+
+    /**
+     * @param subscriptionHandling The subscription to publish the events of.
+     * @param bufferCapacity       The maximum number of events waiting for a subscriber's demand.
+     * @param overflowPolicy       What to do with an event that arrives while a subscriber's buffer
+     *                             is full.
+     */
+    public LiveQueryPublisher(LiveQueryEventHandling<T> subscriptionHandling, int bufferCapacity,
+                              ParseLiveQueryClient.OverflowPolicy overflowPolicy) {
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("The buffer capacity must be at least 1");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("The overflow policy must not be null");
+        }
+        this.bufferCapacity = bufferCapacity;
+        this.overflowPolicy = overflowPolicy;
+
+        subscriptionHandling.handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<T>() {
+            @Override
+            public void onEvents(ParseQuery<T> query, LiveQueryEvent<T> event) {
+                for (Downstream downstream : downstreams) {
+                    downstream.offer(event);
+                }
+            }
+        });
+        subscriptionHandling.handleError(new SubscriptionHandling.HandleErrorCallback<T>() {
+            @Override
+            public void onError(ParseQuery<T> query, LiveQueryException exception) {
+                end(exception);
+            }
+        });
+        subscriptionHandling.handleUnsubscribe(new SubscriptionHandling.HandleUnsubscribeCallback<T>() {
+            @Override
+            public void onUnsubscribe(ParseQuery<T> query) {
+                end(null);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super LiveQueryEvent<T>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("The subscriber must not be null");
+        }
+        Downstream downstream = new Downstream(subscriber);
+        subscriber.onSubscribe(downstream);
+        // Only added now, so no event is delivered before onSubscribe returned
+        downstreams.add(downstream);
+
+        boolean alreadyEnded;
+        Throwable error;
+        synchronized (this) {
+            alreadyEnded = ended;
+            error = endError;
+        }
+        if (alreadyEnded) {
+            downstream.end(error);
+        }
+    }
+
+    private void end(Throwable error) {
+        synchronized (this) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            endError = error;
+        }
+        for (Downstream downstream : downstreams) {
+            downstream.end(error);
+        }
+    }
+
+    private static class Entry<T extends ParseObject> {
+
+        private LiveQueryEvent<T> event;
+        private final String objectId;
+
+        private Entry(LiveQueryEvent<T> event, String objectId) {
+            this.event = event;
+            this.objectId = objectId;
+        }
+    }
+
+    /**
+     * The buffer and demand of one subscriber. Signals are only sent by whichever thread gets to
+     * drain the buffer first, the others leave their work to it, so they never overlap.
+     */
+    private class Downstream implements org.reactivestreams.Subscription {
+
+        private final Subscriber<? super LiveQueryEvent<T>> subscriber;
+        // The number of times draining was asked for while a thread was draining
+        private final AtomicInteger drainRequests = new AtomicInteger();
+
+        // Guarded by this
+        private final ArrayDeque<Entry<T>> buffer = new ArrayDeque<>();
+        private final Map<String, Entry<T>> bufferedByObject = new HashMap<>();
+        private long demand = 0;
+        private boolean done = false;
+        private Throwable error;
+        private boolean cancelled = false;
+
+        private Downstream(Subscriber<? super LiveQueryEvent<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    // Required by rule 3.9 of the specification
+                    clear();
+                    done = true;
+                    error = new IllegalArgumentException("The number of events requested must be positive, not " + n);
+                } else {
+                    demand += n;
+                    if (demand < 0) {
+                        // Overflowed: the demand is unbounded
+                        demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                clear();
+            }
+            downstreams.remove(this);
+        }
+
+        private void offer(LiveQueryEvent<T> event) {
+            synchronized (this) {
+                String objectId = overflowPolicy == ParseLiveQueryClient.OverflowPolicy.COALESCE ? event.getObjectId() : null;
+                while (buffer.size() >= bufferCapacity) {
+                    if (cancelled || done) {
+                        return;
+                    }
+                    if (overflowPolicy == ParseLiveQueryClient.OverflowPolicy.BLOCK) {
+                        try {
+                            wait();
+                            continue;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (overflowPolicy == ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST) {
+                        return;
+                    }
+                    if (objectId != null) {
+                        Entry<T> existing = bufferedByObject.get(objectId);
+                        if (existing != null) {
+                            existing.event = existing.event.coalesce(event);
+                            return;
+                        }
+                    }
+                    untrack(buffer.poll());
+                }
+                if (cancelled || done) {
+                    return;
+                }
+
+                Entry<T> entry = new Entry<>(event, objectId);
+                buffer.add(entry);
+                if (objectId != null) {
+                    bufferedByObject.put(objectId, entry);
+                }
+            }
+            drain();
+        }
+
+        private void end(Throwable error) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                this.error = error;
+                notifyAll();
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                while (true) {
+                    LiveQueryEvent<T> event;
+                    Throwable terminalError;
+                    synchronized (this) {
+                        if (cancelled) {
+                            return;
+                        }
+                        if (!buffer.isEmpty() && demand > 0) {
+                            Entry<T> entry = buffer.poll();
+                            untrack(entry);
+                            event = entry.event;
+                            if (demand != Long.MAX_VALUE) {
+                                demand--;
+                            }
+                            // Room for a blocked event
+                            notifyAll();
+                        } else if (buffer.isEmpty() && done) {
+                            // No signal may follow a terminal one
+                            cancelled = true;
+                            event = null;
+                        } else {
+                            break;
+                        }
+                        terminalError = error;
+                    }
+
+                    if (event != null) {
+                        subscriber.onNext(event);
+                        continue;
+                    }
+                    downstreams.remove(this);
+                    if (terminalError != null) {
+                        subscriber.onError(terminalError);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                missed = drainRequests.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        // Called with the lock held
+        private void clear() {
+            buffer.clear();
+            bufferedByObject.clear();
+            notifyAll();
+        }
+
+        // Called with the lock held
+        private void untrack(Entry<T> entry) {
+            if (entry.objectId != null && bufferedByObject.get(entry.objectId) == entry) {
+                bufferedByObject.remove(entry.objectId);
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The objects currently matching a subscription's query, kept up to date from its events.
+ * <p>
+ * Create, enter and update events add or replace an object, found by object id in constant time;
+ * leave and delete events remove it. The objects are kept in the given order, or in the order they
+ * first arrived, in a sorted array list. A change is placed by binary search and the list is never
+ * re-sorted, but inserting or removing an element shifts the elements after it, so a change still
+ * costs time linear in the size of the result set. Each change is reported to the
+ * {@link Listener}s as the single insert, remove, move or change it amounts to, which maps directly
+ * to the notifications of list adapters.
+ * <p>
+ * When the client merges events into a single instance per object, an update has already changed
+ * the stored instance, so binary search can't find where it was, and it is looked for one element
+ * at a time instead.
+ * <p>
+ * The server only sends changes, so seed the result set with the results of the query using
+ * {@link #reset(Collection)}. Listeners are called on the thread the events are delivered on, in
+ * order, while the result set is locked; post to the main thread to update views.
+ *
+ * @param <T> The type of the objects.
+ */
+public class LiveResultSet<T extends ParseObject> {
+
+    /**
+     * Receives the changes of a {@link LiveResultSet}. Positions refer to the result set right
+     * before the change, except for the destination of an insert or move.
+     */
+    public interface Listener<T extends ParseObject> {
+        void onInserted(int position, T object);
+
+        void onRemoved(int position, T object);
+
+        void onMoved(int fromPosition, int toPosition, T object);
+
+        void onChanged(int position, T object);
+    }
+
+    private static class Entry<T extends ParseObject> {
+
+        private final T object;
+        // Breaks ties of the order, and is the order when there is none
+        private final long sequence;
+        // As when the entry was made, as the object may be changed in place
+        private final Date updatedAt;
+
+        private Entry(T object, long sequence) {
+            this.object = object;
+            this.sequence = sequence;
+            this.updatedAt = object.getUpdatedAt();
+        }
+    }
+
+    private final Comparator<? super T> order;
+    private final Comparator<Entry<T>> entryOrder = new Comparator<Entry<T>>() {
+        @Override
+        public int compare(Entry<T> lhs, Entry<T> rhs) {
+            if (order != null) {
+                int result = order.compare(lhs.object, rhs.object);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+    private final Map<String, Entry<T>> byObjectId = new HashMap<>();
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
+    private long nextSequence = 0;
+
+    /**
+     * Creates a result set that keeps objects in the order they first arrived.
+     *
+     * @param subscriptionHandling The subscription to follow.
+     */
+    public LiveResultSet(SubscriptionHandling<T> subscriptionHandling) {
+        this(subscriptionHandling, null);
+    }
+
+    /**
+     * @param subscriptionHandling The subscription to follow.
+     * @param order                The order to keep objects in, or null for the order they first
+     *                             arrived. Objects it considers equal are kept in arrival order.
+     */
+    public LiveResultSet(SubscriptionHandling<T> subscriptionHandling, Comparator<? super T> order) {
+        this.order = order;
+        subscriptionHandling.handleEvents(new SubscriptionHandling.HandleEventsCallback<T>() {
+            @Override
+            public void onEvents(ParseQuery<T> query, SubscriptionHandling.Event event, T object) {
+                switch (event) {
+                    case CREATE:
+                    case ENTER:
+                    case UPDATE:
+                        put(object);
+                        break;
+                    case LEAVE:
+                    case DELETE:
+                        remove(object.getObjectId());
+                        break;
+                }
+            }
+        });
+    }
+
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the contents with the given objects, typically the results of the query, reporting
+     * only the differences. An object already in the result set is only reported as changed if it
+     * was updated since, as told by {@link ParseObject#getUpdatedAt()}.
+     *
+     * @param objects The objects matching the query.
+     */
+    public synchronized void reset(Collection<? extends T> objects) {
+        Set<String> objectIds = new HashSet<>();
+        for (T object : objects) {
+            if (object.getObjectId() != null) {
+                objectIds.add(object.getObjectId());
+            }
+        }
+        for (String objectId : new ArrayList<>(byObjectId.keySet())) {
+            if (!objectIds.contains(objectId)) {
+                remove(objectId);
+            }
+        }
+        for (T object : objects) {
+            Entry<T> previous = byObjectId.get(object.getObjectId());
+            if (previous == null || previous.updatedAt == null || !previous.updatedAt.equals(object.getUpdatedAt())) {
+                put(object);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized T get(int position) {
+        return entries.get(position).object;
+    }
+
+    /**
+     * @return The object with the given id, or null if it is not in the result set.
+     */
+    public synchronized T get(String objectId) {
+        Entry<T> entry = byObjectId.get(objectId);
+        return entry == null ? null : entry.object;
+    }
+
+    public synchronized boolean contains(String objectId) {
+        return byObjectId.containsKey(objectId);
+    }
+
+    /**
+     * @return A copy of the objects, in order.
+     */
+    public synchronized List<T> snapshot() {
+        List<T> objects = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            objects.add(entry.object);
+        }
+        return Collections.unmodifiableList(objects);
+    }
+
+    // Private methods
+
+    private synchronized void put(T object) {
+        String objectId = object.getObjectId();
+        if (objectId == null) {
+            return;
+        }
+
+        Entry<T> previous = byObjectId.get(objectId);
+        if (previous == null) {
+            Entry<T> entry = new Entry<>(object, nextSequence++);
+            int position = insertionPoint(entry);
+            entries.add(position, entry);
+            byObjectId.put(objectId, entry);
+            for (Listener<T> listener : listeners) {
+                listener.onInserted(position, object);
+            }
+            return;
+        }
+
+        Entry<T> entry = new Entry<>(object, previous.sequence);
+        byObjectId.put(objectId, entry);
+        int from = indexOf(previous);
+        if (fitsAt(from, entry)) {
+            entries.set(from, entry);
+            for (Listener<T> listener : listeners) {
+                listener.onChanged(from, object);
+            }
+            return;
+        }
+
+        entries.remove(from);
+        int to = insertionPoint(entry);
+        entries.add(to, entry);
+        for (Listener<T> listener : listeners) {
+            listener.onMoved(from, to, object);
+            listener.onChanged(to, object);
+        }
+    }
+
+    private synchronized void remove(String objectId) {
+        Entry<T> entry = byObjectId.remove(objectId);
+        if (entry == null) {
+            return;
+        }
+        int position = indexOf(entry);
+        entries.remove(position);
+        for (Listener<T> listener : listeners) {
+            listener.onRemoved(position, entry.object);
+        }
+    }
+
+    /**
+     * @return Whether the entry can replace the one at the given position without breaking the order.
+     */
+    private boolean fitsAt(int position, Entry<T> entry) {
+        return (position == 0 || entryOrder.compare(entries.get(position - 1), entry) < 0)
+                && (position == entries.size() - 1 || entryOrder.compare(entry, entries.get(position + 1)) < 0);
+    }
+
+    private int insertionPoint(Entry<T> entry) {
+        int result = Collections.binarySearch(entries, entry, entryOrder);
+        return result < 0 ? -(result + 1) : result;
+    }
+
+    private int indexOf(Entry<T> entry) {
+        int result = Collections.binarySearch(entries, entry, entryOrder);
+        if (result >= 0 && entries.get(result) == entry) {
+            return result;
+        }
+        // The order is inconsistent, because an object was changed in place
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i) == entry) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Entry of " + entry.object.getObjectId() + " is missing");
+    }
+}
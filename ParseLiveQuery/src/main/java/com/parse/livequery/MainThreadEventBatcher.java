@@ -0,0 +1,111 @@
+package com.parse.livequery;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the events of a subscription on the thread they are dispatched on, and hands them to a
+ * {@link LiveQueryEventHandling.HandleEventBatchCallback} on the main thread once per frame.
+ * <p>
+ * The first event of a batch asks the {@link Choreographer} for the next frame, and the events
+ * arriving until then join the batch. Objects are decoded before they are queued, so the main
+ * thread only runs the callback. Before Jelly Bean there is no Choreographer, and the batch is
+ * delivered by a single message as soon as the main thread gets to it.
+ */
+class MainThreadEventBatcher<T extends ParseObject> implements LiveQueryEventHandling.HandleLiveQueryEventsCallback<T> {
+
+    private final LiveQueryEventHandling.HandleEventBatchCallback<T> callback;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            deliverBatch();
+        }
+    };
+    // Null before Jelly Bean
+    private final FrameScheduler frameScheduler;
+
+    // Guarded by this
+    private List<LiveQueryEvent<T>> pending = new ArrayList<>();
+    private ParseQuery<T> query;
+    private boolean scheduled = false;
+
+    /* package */ MainThreadEventBatcher(LiveQueryEventHandling.HandleEventBatchCallback<T> callback) {
+        this.callback = callback;
+        this.frameScheduler = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameScheduler() : null;
+    }
+
+    @Override
+    public void onEvents(ParseQuery<T> query, LiveQueryEvent<T> event) {
+        // Decoded here rather than on the main thread
+        event.getObject();
+        boolean schedule;
+        synchronized (this) {
+            pending.add(event);
+            this.query = query;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (!schedule) {
+            return;
+        }
+        if (frameScheduler != null) {
+            frameScheduler.schedule();
+        } else {
+            mainHandler.post(deliver);
+        }
+    }
+
+    private void deliverBatch() {
+        List<LiveQueryEvent<T>> batch;
+        ParseQuery<T> batchQuery;
+        synchronized (this) {
+            batch = pending;
+            batchQuery = query;
+            pending = new ArrayList<>();
+            scheduled = false;
+        }
+        if (!batch.isEmpty()) {
+            callback.onEventBatch(batchQuery, Collections.unmodifiableList(batch));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class FrameScheduler implements Choreographer.FrameCallback {
+
+        // The main thread's, which can only be obtained on the main thread. Frame callbacks can be
+        // posted to it from any thread, so only the first batch costs an extra message.
+        private volatile Choreographer choreographer;
+        private final Runnable postFromMainThread = new Runnable() {
+            @Override
+            public void run() {
+                choreographer = Choreographer.getInstance();
+                choreographer.postFrameCallback(FrameScheduler.this);
+            }
+        };
+
+        private void schedule() {
+            Choreographer mainChoreographer = choreographer;
+            if (mainChoreographer != null) {
+                mainChoreographer.postFrameCallback(this);
+            } else {
+                mainHandler.post(postFromMainThread);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            deliverBatch();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.parse.livequery;
+
+import com.parse.ParseDecoder;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONObject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes event objects into a single instance per class name and object id, so an object updated
+ * many times stays the same instance and subscriptions to different queries share it.
+ * <p>
+ * Instances are held weakly: one is reused as long as the app holds on to it. The map itself is
+ * bounded, forgetting the least recently used objects first.
+ * <p>
+ * Events are merged through the public {@link ParseObject} setters, so merged values look like local
+ * changes: the instance reports them as dirty, they replace unsaved local changes to the same keys,
+ * and {@link ParseObject#getUpdatedAt()} keeps the value of the first decode.
+ */
+class ObjectIdentityMap {
+
+    private final LinkedHashMap<String, WeakReference<ParseObject>> instances;
+
+    /* package */ ObjectIdentityMap(final int maxSize) {
+        instances = new LinkedHashMap<String, WeakReference<ParseObject>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WeakReference<ParseObject>> eldest) {
+                return size() > maxSize || eldest.getValue().get() == null;
+            }
+        };
+    }
+
+    /**
+     * Decodes an event object, merging it into the instance decoded before if there is one.
+     *
+     * @param json  The object received from the server.
+     * @param state The query the object matched.
+     * @return The instance holding the object's state.
+     */
+    /* package */ <T extends ParseObject> T decode(JSONObject json, ParseQuery.State<T> state) {
+        String objectId = json.optString("objectId", null);
+        if (objectId == null) {
+            return ParseObject.fromJSON(json, state.className(), ParseDecoder.get(), state.selectedKeys());
+        }
+        String key = key(json.optString("className", state.className()), objectId);
+        boolean completeData = state.selectedKeys() == null || state.selectedKeys().isEmpty();
+
+        T existing = get(key);
+        // Decoded outside the lock so subscriptions decode in parallel; if another thread won the
+        // race for the same object, its instance is kept
+        T decoded = ParseObject.fromJSON(json, state.className(), ParseDecoder.get(), state.selectedKeys());
+        if (existing == null) {
+            synchronized (this) {
+                existing = get(key);
+                if (existing == null) {
+                    instances.put(key, new WeakReference<ParseObject>(decoded));
+                    return decoded;
+                }
+            }
+        }
+        merge(existing, decoded, completeData);
+        return existing;
+    }
+
+    /**
+     * Copies the keys of a freshly decoded object onto the instance decoded before.
+     *
+     * @param existing     The instance to merge into.
+     * @param decoded      The object decoded from the event.
+     * @param completeData Whether the server sent every key, so keys it didn't send were removed.
+     */
+    private static void merge(ParseObject existing, ParseObject decoded, boolean completeData) {
+        synchronized (existing) {
+            for (String key : decoded.keySet()) {
+                Object value = decoded.get(key);
+                if (existing.containsKey(key) && value.equals(existing.get(key))) {
+                    continue;
+                }
+                try {
+                    existing.put(key, value);
+                } catch (IllegalArgumentException e) {
+                    // Keys the class doesn't let apps set, such as a user's session token
+                }
+            }
+            if (!completeData) {
+                return;
+            }
+            for (String key : new ArrayList<>(existing.keySet())) {
+                if (!decoded.containsKey(key)) {
+                    try {
+                        existing.remove(key);
+                    } catch (IllegalArgumentException e) {
+                        // As above
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted object, so an object created later with the same id gets a new instance.
+     */
+    /* package */ synchronized void remove(String className, String objectId) {
+        instances.remove(key(className, objectId));
+    }
+
+    /* package */ synchronized int size() {
+        return instances.size();
+    }
+
+    private synchronized <T extends ParseObject> T get(String key) {
+        WeakReference<ParseObject> reference = instances.get(key);
+        //noinspection unchecked
+        return reference == null ? null : (T) reference.get();
+    }
+
+    private static String key(String className, String objectId) {
+        // Class names can't contain '/'
+        return className + '/' + objectId;
+    }
+}
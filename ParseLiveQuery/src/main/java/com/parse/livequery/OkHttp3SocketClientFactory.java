@@ -4,6 +4,8 @@ import android.util.Log;
 
 import java.net.URI;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -11,22 +13,138 @@ import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
-
+import okio.Utf8;
+
+/**
+ * Creates {@link WebSocketClient}s backed by OkHttp.
+ * <p>
+ * Messages are not compressed: the OkHttp 3.12 line this library is pinned to for Android versions
+ * below 5.0 does not support the permessage-deflate extension and fails on compressed frames, so
+ * the extension is never offered to the server.
+ * <p>
+ * Dead connections are detected with ping frames when the client has a ping interval: OkHttp fails
+ * the socket when the pong for a ping has not arrived by the time the next ping is due, so a
+ * connection silently dropped by a NAT or proxy is reported within two intervals rather than when
+ * TCP gives up.
+ */
 public class OkHttp3SocketClientFactory implements WebSocketClientFactory {
 
     OkHttpClient mClient;
+    private final ByteCountingMetrics metrics;
 
     public OkHttp3SocketClientFactory(OkHttpClient client) {
-        mClient = client;
+        this(client, LiveQueryMetrics.NO_OP);
     }
 
     public OkHttp3SocketClientFactory() {
-        mClient = new OkHttpClient();
+        this(new OkHttpClient());
+    }
+
+    /**
+     * @param client  The client to create sockets with.
+     * @param metrics The metrics to report messages sent and received to.
+     */
+    public OkHttp3SocketClientFactory(OkHttpClient client, LiveQueryMetrics metrics) {
+        mClient = client;
+        this.metrics = new ByteCountingMetrics(metrics);
+    }
+
+    /**
+     * @param client       The client to create sockets with. It is copied with the given ping interval.
+     * @param metrics      The metrics to report messages sent and received to.
+     * @param pingInterval The interval between ping frames, after which a socket without a pong fails.
+     * @param unit         The unit of the interval.
+     */
+    public OkHttp3SocketClientFactory(OkHttpClient client, LiveQueryMetrics metrics, long pingInterval, TimeUnit unit) {
+        this(client.newBuilder().pingInterval(pingInterval, unit).build(), metrics);
     }
 
     @Override
     public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
-        return new OkHttp3WebSocketClient(mClient, webSocketClientCallback, hostUrl);
+        return new OkHttp3WebSocketClient(mClient, webSocketClientCallback, hostUrl, metrics);
+    }
+
+    /**
+     * @return The number of message bytes sent by all clients created by this factory, not counting
+     * websocket framing.
+     */
+    public long getBytesSent() {
+        return metrics.bytesSent.get();
+    }
+
+    /**
+     * @return The number of message bytes received by all clients created by this factory, not
+     * counting websocket framing.
+     */
+    public long getBytesReceived() {
+        return metrics.bytesReceived.get();
+    }
+
+    /**
+     * Totals the message sizes the sockets report before passing them on, so the sockets only have
+     * one place to report them to.
+     */
+    private static class ByteCountingMetrics implements LiveQueryMetrics {
+
+        private final LiveQueryMetrics metrics;
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private ByteCountingMetrics(LiveQueryMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void onMessageReceived(int bytes) {
+            bytesReceived.addAndGet(bytes);
+            metrics.onMessageReceived(bytes);
+        }
+
+        @Override
+        public void onMessageSent(int bytes) {
+            bytesSent.addAndGet(bytes);
+            metrics.onMessageSent(bytes);
+        }
+
+        @Override
+        public void onDecodeFailure() {
+            metrics.onDecodeFailure();
+        }
+
+        @Override
+        public void onInboundQueueDepth(int depth) {
+            metrics.onInboundQueueDepth(depth);
+        }
+
+        @Override
+        public void onEventDropped() {
+            metrics.onEventDropped();
+        }
+
+        @Override
+        public void onEventDelivered(int requestId, long latencyNanos) {
+            metrics.onEventDelivered(requestId, latencyNanos);
+        }
+
+        @Override
+        public void onSubscribed(int requestId) {
+            metrics.onSubscribed(requestId);
+        }
+
+        @Override
+        public void onUnsubscribed(int requestId) {
+            metrics.onUnsubscribed(requestId);
+        }
+
+        @Override
+        public void onReconnectAttempt() {
+            metrics.onReconnectAttempt();
+        }
+
+        @Override
+        public void onConnected() {
+            metrics.onConnected();
+        }
     }
 
     static class OkHttp3WebSocketClient implements WebSocketClient {
@@ -40,6 +158,7 @@ public class OkHttp3SocketClientFactory implements WebSocketClientFactory {
         private final String url;
         private final int STATUS_CODE = 1000;
         private final String CLOSING_MSG = "User invoked close";
+        private final LiveQueryMetrics metrics;
 
         private final WebSocketListener handler = new WebSocketListener() {
             @Override
@@ -50,16 +169,24 @@ public class OkHttp3SocketClientFactory implements WebSocketClientFactory {
 
             @Override
             public void onMessage(WebSocket webSocket, String text) {
+                metrics.onMessageReceived((int) Utf8.size(text));
                 webSocketClientCallback.onMessage(text);
             }
 
             @Override
             public void onMessage(WebSocket webSocket, ByteString bytes) {
+                metrics.onMessageReceived(bytes.size());
                 Log.w(LOG_TAG, String.format(Locale.US,
                         "Socket got into inconsistent state and received %s instead.",
                         bytes.toString()));
             }
 
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                // Answer a close started by the server, or the socket is only closed when it times out
+                webSocket.close(code, null);
+            }
+
             @Override
             public void onClosed(WebSocket webSocket, int code, String reason) {
                 setState(State.DISCONNECTED);
@@ -68,12 +195,15 @@ public class OkHttp3SocketClientFactory implements WebSocketClientFactory {
 
             @Override
             public void onFailure(okhttp3.WebSocket webSocket, Throwable t, Response response) {
+                setState(State.DISCONNECTED);
                 webSocketClientCallback.onError(t);
             }
         };
 
         private OkHttp3WebSocketClient(OkHttpClient okHttpClient,
-                                       WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
+                                       WebSocketClientCallback webSocketClientCallback, URI hostUrl,
+                                       LiveQueryMetrics metrics) {
+            this.metrics = metrics;
             client = okHttpClient;
             this.webSocketClientCallback = webSocketClientCallback;
             url = hostUrl.toString();
@@ -102,8 +232,8 @@ public class OkHttp3SocketClientFactory implements WebSocketClientFactory {
 
         @Override
         public synchronized void send(String message) {
-            if (state == State.CONNECTED) {
-                webSocket.send(message);
+            if (state == State.CONNECTED && webSocket.send(message)) {
+                metrics.onMessageSent((int) Utf8.size(message));
             }
         }
 
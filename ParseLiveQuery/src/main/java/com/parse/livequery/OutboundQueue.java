@@ -0,0 +1,72 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Subscribe and unsubscribe operations waiting to be written to the socket.
+ * <p>
+ * Operations are kept in order until the server has confirmed the connection. An unsubscribe for a
+ * subscription whose subscribe is still waiting cancels it, so neither reaches the wire. The
+ * session token is only looked up when operations are written, so the queue holds the subscriptions
+ * rather than encoded {@link ClientOperation}s.
+ */
+class OutboundQueue {
+
+    static class Operation {
+
+        private final boolean subscribe;
+        private final ServerSubscription<? extends ParseObject> subscription;
+
+        private Operation(boolean subscribe, ServerSubscription<? extends ParseObject> subscription) {
+            this.subscribe = subscribe;
+            this.subscription = subscription;
+        }
+
+        /* package */ boolean isSubscribe() {
+            return subscribe;
+        }
+
+        /* package */ ServerSubscription<? extends ParseObject> getSubscription() {
+            return subscription;
+        }
+    }
+
+    // By request id, in the order operations were queued
+    private final LinkedHashMap<Integer, Operation> operations = new LinkedHashMap<>();
+
+    /* package */ synchronized void subscribe(ServerSubscription<? extends ParseObject> subscription) {
+        operations.remove(subscription.getRequestId());
+        operations.put(subscription.getRequestId(), new Operation(true, subscription));
+    }
+
+    /**
+     * @param subscription The subscription to unsubscribe.
+     * @return False if the unsubscribe cancelled a subscribe that was not written yet, in which case
+     * there is nothing to tell the server.
+     */
+    /* package */ synchronized boolean unsubscribe(ServerSubscription<? extends ParseObject> subscription) {
+        Operation pending = operations.remove(subscription.getRequestId());
+        if (pending != null && pending.subscribe) {
+            return false;
+        }
+        operations.put(subscription.getRequestId(), new Operation(false, subscription));
+        return true;
+    }
+
+    /* package */ synchronized boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * @return The queued operations, oldest first. The queue is empty afterwards.
+     */
+    /* package */ synchronized List<Operation> drain() {
+        List<Operation> drained = new ArrayList<>(operations.values());
+        operations.clear();
+        return drained;
+    }
+}
@@ -4,7 +4,11 @@ import com.parse.ParseObject;
 import com.parse.ParseQuery;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public interface ParseLiveQueryClient {
     <T extends ParseObject> SubscriptionHandling<T> subscribe(ParseQuery<T> query);
@@ -23,6 +27,318 @@ public interface ParseLiveQueryClient {
 
     void unregisterListener(ParseLiveQueryClientCallbacks listener);
 
+    /**
+     * What to do with an incoming event when the inbound queue is full.
+     */
+    enum OverflowPolicy {
+        /**
+         * Stop reading from the socket until there is room in the queue. The thread reading the
+         * socket is parked meanwhile, so pongs go unread as well: don't combine with
+         * {@link Configuration.Builder#heartbeat}, which would take a full queue for a lost connection.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest event waiting in the queue.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the incoming event.
+         */
+        DROP_NEWEST,
+        /**
+         * Merge the incoming event into an event waiting in the queue for the same object, so only
+         * the latest state of the object is delivered. Drop the oldest event if there is none.
+         */
+        COALESCE
+    }
+
+    /**
+     * How subscriptions are spread over the sockets of a client with several shards.
+     */
+    enum ShardBy {
+        /**
+         * All subscriptions to the same class use the same socket.
+         */
+        CLASS_NAME,
+        /**
+         * Subscriptions are spread by query. Equivalent queries use the same socket, so they can
+         * still share a server subscription.
+         */
+        QUERY
+    }
+
+    /**
+     * Options for creating a {@link ParseLiveQueryClient}. Use {@link Configuration.Builder} to create one.
+     */
+    class Configuration {
+
+        /* package */ static final int DEFAULT_INBOUND_QUEUE_CAPACITY = 1000;
+
+        /* package */ final URI uri;
+        /* package */ final List<URI> fallbackUris;
+        /* package */ final WebSocketClientFactory webSocketClientFactory;
+        /* package */ final Executor taskExecutor;
+        /* package */ final int inboundQueueCapacity;
+        /* package */ final OverflowPolicy inboundOverflowPolicy;
+        /* package */ final long reconnectInitialDelayMillis;
+        /* package */ final long reconnectMaxDelayMillis;
+        /* package */ final long heartbeatIntervalMillis;
+        /* package */ final int reconnectMaxAttempts;
+        /* package */ final boolean multiplexSubscriptions;
+        /* package */ final LiveQueryCodec codec;
+        /* package */ final LiveQueryMetrics metrics;
+        /* package */ final int identityMapSize;
+        /* package */ final int shardCount;
+        /* package */ final ShardBy shardBy;
+
+        private Configuration(Builder builder) {
+            this.uri = builder.uri;
+            this.fallbackUris = builder.fallbackUris;
+            this.webSocketClientFactory = builder.webSocketClientFactory;
+            this.taskExecutor = builder.taskExecutor;
+            this.inboundQueueCapacity = builder.inboundQueueCapacity;
+            this.inboundOverflowPolicy = builder.inboundOverflowPolicy;
+            this.reconnectInitialDelayMillis = builder.reconnectInitialDelayMillis;
+            this.reconnectMaxDelayMillis = builder.reconnectMaxDelayMillis;
+            this.heartbeatIntervalMillis = builder.heartbeatIntervalMillis;
+            this.reconnectMaxAttempts = builder.reconnectMaxAttempts;
+            this.multiplexSubscriptions = builder.multiplexSubscriptions;
+            this.codec = builder.codec;
+            this.metrics = builder.metrics;
+            this.identityMapSize = builder.identityMapSize;
+            this.shardCount = builder.shardCount;
+            this.shardBy = builder.shardBy;
+        }
+
+        public static class Builder {
+            private URI uri;
+            private List<URI> fallbackUris = Collections.emptyList();
+            private WebSocketClientFactory webSocketClientFactory;
+            private Executor taskExecutor;
+            private int inboundQueueCapacity = DEFAULT_INBOUND_QUEUE_CAPACITY;
+            private OverflowPolicy inboundOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+            private long reconnectInitialDelayMillis;
+            private long reconnectMaxDelayMillis;
+            private long heartbeatIntervalMillis = 0;
+            private int reconnectMaxAttempts = 0;
+            private boolean multiplexSubscriptions = false;
+            private LiveQueryCodec codec;
+            private LiveQueryMetrics metrics = LiveQueryMetrics.NO_OP;
+            private int identityMapSize = 0;
+            private int shardCount = 1;
+            private ShardBy shardBy = ShardBy.CLASS_NAME;
+
+            /**
+             * Set the URI of the live query server. Defaults to the server passed to
+             * {@code Parse.initialize}, with the scheme replaced by ws or wss.
+             *
+             * @param uri The URI of the live query server.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder uri(URI uri) {
+                this.uri = uri;
+                return this;
+            }
+
+            /**
+             * Set live query servers to fail over to. When a connection can't be established, the
+             * client moves to the server that failed least often since it last accepted a
+             * connection, preferring the primary URI and then the fallbacks in the given order.
+             * A server may also redirect the client to another server, which is used until it
+             * fails. None by default.
+             *
+             * @param fallbackUris The URIs of the fallback servers.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder fallbackUris(List<URI> fallbackUris) {
+                if (fallbackUris == null || fallbackUris.contains(null)) {
+                    throw new IllegalArgumentException("fallbackUris may not be or contain null");
+                }
+                this.fallbackUris = Collections.unmodifiableList(new ArrayList<>(fallbackUris));
+                return this;
+            }
+
+            /**
+             * Set the factory used to create web sockets. Defaults to an {@link OkHttp3SocketClientFactory}.
+             *
+             * @param webSocketClientFactory The factory used to create web sockets.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder webSocketClientFactory(WebSocketClientFactory webSocketClientFactory) {
+                this.webSocketClientFactory = webSocketClientFactory;
+                return this;
+            }
+
+            /**
+             * Set the executor messages are sent and handled on. Defaults to {@code Task.BACKGROUND_EXECUTOR}.
+             *
+             * @param taskExecutor The executor messages are sent and handled on.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder taskExecutor(Executor taskExecutor) {
+                this.taskExecutor = taskExecutor;
+                return this;
+            }
+
+            /**
+             * Bound the number of received events waiting to be handled. Defaults to 1000 events,
+             * dropping the oldest when full. {@link OverflowPolicy#BLOCK} stalls the socket reader
+             * instead, and can't be combined with {@link #heartbeat}.
+             *
+             * @param capacity The maximum number of events waiting to be handled.
+             * @param policy   What to do with an event received while the queue is full.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder inboundQueue(int capacity, OverflowPolicy policy) {
+                if (capacity <= 0) {
+                    throw new IllegalArgumentException("capacity must be positive");
+                }
+                if (policy == null) {
+                    throw new IllegalArgumentException("policy may not be null");
+                }
+                this.inboundQueueCapacity = capacity;
+                this.inboundOverflowPolicy = policy;
+                return this;
+            }
+
+            /**
+             * Reconnect automatically when the connection is lost, unless {@link ParseLiveQueryClient#disconnect()} was
+             * called or the server reported an error telling us not to. Attempt n is made after a
+             * random delay between zero and {@code min(maxDelay, initialDelay * 2^n)}; the count is
+             * reset once the client is connected again. Disabled by default.
+             *
+             * @param initialDelay The upper bound of the delay before the first attempt.
+             * @param maxDelay     The upper bound of the delay before any attempt.
+             * @param unit         The unit of both delays.
+             * @param maxAttempts  The number of attempts to make before giving up.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder automaticReconnect(long initialDelay, long maxDelay, TimeUnit unit, int maxAttempts) {
+                if (initialDelay <= 0 || maxDelay < initialDelay) {
+                    throw new IllegalArgumentException("delays must be positive and maxDelay at least initialDelay");
+                }
+                if (maxAttempts < 0) {
+                    throw new IllegalArgumentException("maxAttempts may not be negative");
+                }
+                this.reconnectInitialDelayMillis = unit.toMillis(initialDelay);
+                this.reconnectMaxDelayMillis = unit.toMillis(maxDelay);
+                this.reconnectMaxAttempts = maxAttempts;
+                return this;
+            }
+
+            /**
+             * Send a ping frame at the given interval, and treat the connection as lost when its pong
+             * has not arrived by the time the next ping is due. Finds connections silently dropped by
+             * a NAT or proxy within two intervals, so combine with {@link #automaticReconnect} to
+             * replace them. Not compatible with {@link OverflowPolicy#BLOCK}, which stops the pongs
+             * from being read while the inbound queue is full. Only applies to the default socket factory; use
+             * {@link OkHttp3SocketClientFactory#OkHttp3SocketClientFactory(okhttp3.OkHttpClient, LiveQueryMetrics, long, TimeUnit)}
+             * otherwise. Disabled by default.
+             *
+             * @param interval The interval between pings.
+             * @param unit     The unit of the interval.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder heartbeat(long interval, TimeUnit unit) {
+                if (interval <= 0) {
+                    throw new IllegalArgumentException("interval must be positive");
+                }
+                this.heartbeatIntervalMillis = unit.toMillis(interval);
+                return this;
+            }
+
+            /**
+             * Share a single server subscription between all subscriptions to equivalent queries, i.e.
+             * queries on the same class with the same constraints and selected keys. The server then
+             * tracks each query once, and each event is received and decoded once and delivered to
+             * every subscription, which all report the same request id. The server is only told to
+             * unsubscribe when the last of them is unsubscribed. Disabled by default.
+             *
+             * @param multiplexSubscriptions Whether to share server subscriptions.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder multiplexSubscriptions(boolean multiplexSubscriptions) {
+                this.multiplexSubscriptions = multiplexSubscriptions;
+                return this;
+            }
+
+            /**
+             * Merge the objects of events into the instance earlier events on the same object were
+             * decoded into, rather than decoding a new instance for every event. An object updated
+             * many times then stays the same instance, shared by all subscriptions it matches.
+             * Instances are held weakly, and at most {@code maxSize} objects are tracked, forgetting
+             * the least recently used first. Merged values are set like local changes, so the
+             * instance reports them as dirty and they replace unsaved changes to the same keys.
+             * Disabled by default.
+             *
+             * @param maxSize The maximum number of objects to track.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder identityMap(int maxSize) {
+                if (maxSize <= 0) {
+                    throw new IllegalArgumentException("maxSize must be positive");
+                }
+                this.identityMapSize = maxSize;
+                return this;
+            }
+
+            /**
+             * Spread subscriptions over several sockets, each read by its own thread, for clients
+             * that receive more events than a single connection keeps up with. A socket is only
+             * opened once a subscription is spread to it, or the client is asked to connect. The
+             * client is reported connected once every opened socket is, and disconnected when any
+             * of them is lost.
+             * Request ids stay unique across sockets. A single socket by default.
+             *
+             * @param count   The number of sockets.
+             * @param shardBy How subscriptions are spread over the sockets.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder shards(int count, ShardBy shardBy) {
+                if (count <= 0) {
+                    throw new IllegalArgumentException("count must be positive");
+                }
+                if (shardBy == null) {
+                    throw new IllegalArgumentException("shardBy may not be null");
+                }
+                this.shardCount = count;
+                this.shardBy = shardBy;
+                return this;
+            }
+
+            /**
+             * Report measurements of the client to the given metrics. They are also reported by the
+             * default socket factory; a custom {@link OkHttp3SocketClientFactory} must be given the
+             * same metrics. Defaults to {@link LiveQueryMetrics#NO_OP}.
+             *
+             * @param metrics The metrics to report to.
+             * @return The same builder, for easy chaining.
+             */
+            public Builder metrics(LiveQueryMetrics metrics) {
+                if (metrics == null) {
+                    throw new IllegalArgumentException("metrics may not be null");
+                }
+                this.metrics = metrics;
+                return this;
+            }
+
+            /**
+             * Set the codec used to encode and decode messages. Defaults to {@link JsonLiveQueryCodec}.
+             *
+             * @param codec The codec.
+             * @return The same builder, for easy chaining.
+             */
+            /* package */ Builder codec(LiveQueryCodec codec) {
+                this.codec = codec;
+                return this;
+            }
+
+            public Configuration build() {
+                return new Configuration(this);
+            }
+        }
+    }
+
     class Factory {
 
         public static ParseLiveQueryClient getClient() {
@@ -45,5 +361,12 @@ public interface ParseLiveQueryClient {
             return new ParseLiveQueryClientImpl(uri, webSocketClientFactory, taskExecutor);
         }
 
+        public static ParseLiveQueryClient getClient(Configuration configuration) {
+            if (configuration.shardCount > 1) {
+                return new ShardedParseLiveQueryClient(configuration);
+            }
+            return new ParseLiveQueryClientImpl(configuration);
+        }
+
     }
 }
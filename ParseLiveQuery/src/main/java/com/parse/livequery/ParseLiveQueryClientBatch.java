@@ -0,0 +1,20 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+
+import java.util.Collection;
+
+/**
+ * Operations on several subscriptions of a {@link ParseLiveQueryClient} at once. Every client returned
+ * by {@link ParseLiveQueryClient.Factory} implements it; kept apart from {@link ParseLiveQueryClient}
+ * so existing implementations of that interface don't have to.
+ */
+public interface ParseLiveQueryClientBatch {
+
+    /**
+     * Unsubscribes several subscriptions at once. The server is told about all of them together.
+     *
+     * @param subscriptionHandlings The subscriptions returned by {@link ParseLiveQueryClient#subscribe}.
+     */
+    void unsubscribeAll(Collection<? extends SubscriptionHandling<? extends ParseObject>> subscriptionHandlings);
+}
@@ -4,46 +4,84 @@ import android.util.Log;
 
 import com.parse.PLog;
 import com.parse.Parse;
-import com.parse.ParseDecoder;
 import com.parse.ParseObject;
 import com.parse.ParsePlugins;
 import com.parse.ParseQuery;
 import com.parse.ParseUser;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.parse.boltsinternal.Continuation;
 import com.parse.boltsinternal.Task;
 import okhttp3.OkHttpClient;
 
-class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
+class ParseLiveQueryClientImpl implements ParseLiveQueryClient, ParseLiveQueryClientBatch, ParseLiveQueryClientStats {
 
     private static final String LOG_TAG = "ParseLiveQueryClient";
 
     private final Executor taskExecutor;
+    private final StripedExecutor dispatchExecutor;
+    private final InboundQueue inboundQueue;
+    private final AtomicInteger droppedEventCount = new AtomicInteger();
+    private final ReconnectScheduler reconnectScheduler;
+    private final OutboundQueue outboundQueue = new OutboundQueue();
+    private final LiveQueryCodec codec;
+    private final LiveQueryMetrics metrics;
+    // Null unless configured
+    private final ObjectIdentityMap identityMap;
+    private final RoundTripEstimator roundTripTime = new RoundTripEstimator();
+    // When the connect and each subscribe were written, to sample the round trip time on their answer
+    private volatile long connectSentNanos;
+    private final ConcurrentHashMap<Integer, Long> subscribeSentNanos = new ConcurrentHashMap<>();
+    // Held while draining and writing the outbound queue, so operations are written in order
+    private final Object writeLock = new Object();
     private final String applicationId;
     private final String clientKey;
-    private final ConcurrentHashMap<Integer, Subscription<? extends ParseObject>> subscriptions = new ConcurrentHashMap<>();
-    private final URI uri;
+    private final ConcurrentHashMap<Integer, ServerSubscription<? extends ParseObject>> subscriptions = new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final Map<String, ServerSubscription<? extends ParseObject>> sharedSubscriptions = new HashMap<>();
+    // The subscriptions that were not unsubscribed yet, by query; guarded by sharedSubscriptions
+    private final Map<ParseQuery<? extends ParseObject>, List<Subscription<? extends ParseObject>>> subscriptionsByQuery = new HashMap<>();
+    private final boolean multiplexSubscriptions;
+    private final EndpointSelector endpoints;
     private final WebSocketClientFactory webSocketClientFactory;
-    private final WebSocketClient.WebSocketClientCallback webSocketClientCallback;
+    private final ServerMessage.Filter messageFilter = new ServerMessage.Filter() {
+        @Override
+        public boolean wantsObject(int requestId) {
+            return subscriptions.containsKey(requestId);
+        }
+    };
+
+    // Iterated without locking while listeners are registered from other threads
+    private final List<ParseLiveQueryClientCallbacks> mCallbacks = new CopyOnWriteArrayList<>();
 
-    private final List<ParseLiveQueryClientCallbacks> mCallbacks = new ArrayList<>();
+    // Only ever replaced by compare-and-set
+    private final AtomicReference<ConnectionState> connectionState = new AtomicReference<>(ConnectionState.INITIAL);
+    private final AtomicInteger requestIdCount;
+    private final int requestIdStride;
+    private volatile boolean serverAllowsReconnect = true;
 
-    private WebSocketClient webSocketClient;
-    private int requestIdCount = 1;
-    private boolean userInitiatedDisconnect = false;
-    private boolean hasReceivedConnected = false;
+    private final Set<Integer> pendingResubscribes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private volatile long resubscribeStartNanos;
+    private volatile long lastResubscribeDurationNanos = -1;
 
     /* package */ ParseLiveQueryClientImpl() {
         this(getDefaultUri());
@@ -62,39 +100,148 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
     }
 
     /* package */ ParseLiveQueryClientImpl(URI uri, WebSocketClientFactory webSocketClientFactory, Executor taskExecutor) {
+        this(new Configuration.Builder()
+                .uri(uri)
+                .webSocketClientFactory(webSocketClientFactory)
+                .taskExecutor(taskExecutor)
+                .build());
+    }
+
+    /* package */ ParseLiveQueryClientImpl(Configuration configuration) {
+        this(configuration, 1, 1, configuration.identityMapSize > 0 ? new ObjectIdentityMap(configuration.identityMapSize) : null,
+                getWebSocketClientFactory(configuration));
+    }
+
+    /**
+     * @param firstRequestId  The request id of the first subscription.
+     * @param requestIdStride The difference between consecutive request ids, so clients sharing
+     *                        the work of a {@link ShardedParseLiveQueryClient} use distinct ids.
+     * @param identityMap     The identity map to decode objects through, which such clients share;
+     *                        null to decode every object into a new instance.
+     * @param webSocketClientFactory The factory to create sockets with, which such clients share too.
+     */
+    /* package */ ParseLiveQueryClientImpl(Configuration configuration, int firstRequestId, int requestIdStride,
+                                          ObjectIdentityMap identityMap, WebSocketClientFactory webSocketClientFactory) {
         Parse.checkInit();
-        this.uri = uri;
+        this.identityMap = identityMap;
+        this.requestIdCount = new AtomicInteger(firstRequestId);
+        this.requestIdStride = requestIdStride;
+        this.endpoints = new EndpointSelector(configuration.uri != null ? configuration.uri : getDefaultUri(),
+                configuration.fallbackUris);
         this.applicationId = ParsePlugins.get().applicationId();
         this.clientKey = ParsePlugins.get().clientKey();
+        this.metrics = configuration.metrics;
         this.webSocketClientFactory = webSocketClientFactory;
-        this.taskExecutor = taskExecutor;
-        this.webSocketClientCallback = getWebSocketClientCallback();
+        this.taskExecutor = configuration.taskExecutor != null ? configuration.taskExecutor : Task.BACKGROUND_EXECUTOR;
+        this.dispatchExecutor = new StripedExecutor(taskExecutor);
+        this.inboundQueue = new InboundQueue(dispatchExecutor, configuration.inboundQueueCapacity,
+                configuration.inboundOverflowPolicy, getInboundQueueHandler(), metrics);
+        this.reconnectScheduler = new ReconnectScheduler(configuration.reconnectInitialDelayMillis,
+                configuration.reconnectMaxDelayMillis, configuration.reconnectMaxAttempts);
+        this.multiplexSubscriptions = configuration.multiplexSubscriptions;
+        this.codec = configuration.codec != null ? configuration.codec : new JsonLiveQueryCodec();
     }
 
-    private static URI getDefaultUri() {
-        String url = ParsePlugins.get().server();
-        if (url.contains("https")) {
-            url = url.replaceFirst("https", "wss");
-        } else {
-            url = url.replaceFirst("http", "ws");
+    /**
+     * @return The factory set on the configuration, or else an {@link OkHttp3SocketClientFactory}
+     * reporting to its metrics and sending its heartbeats.
+     */
+    /* package */ static WebSocketClientFactory getWebSocketClientFactory(Configuration configuration) {
+        if (configuration.webSocketClientFactory != null) {
+            return configuration.webSocketClientFactory;
+        }
+        if (configuration.heartbeatIntervalMillis > 0) {
+            return new OkHttp3SocketClientFactory(new OkHttpClient(), configuration.metrics,
+                    configuration.heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
         }
+        return new OkHttp3SocketClientFactory(new OkHttpClient(), configuration.metrics);
+    }
+
+    private static URI getDefaultUri() {
         try {
-            return new URI(url);
+            return toWebSocketUri(ParsePlugins.get().server());
         } catch (URISyntaxException e) {
             e.printStackTrace();
             throw new RuntimeException(e.getMessage());
         }
     }
 
+    private static URI toWebSocketUri(String url) throws URISyntaxException {
+        URI uri = new URI(url);
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.US);
+        switch (scheme) {
+            case "http":
+            case "ws":
+                scheme = "ws";
+                break;
+            case "https":
+            case "wss":
+                scheme = "wss";
+                break;
+            default:
+                throw new URISyntaxException(url, "Expected an http, https, ws or wss URL");
+        }
+        String fragment = uri.getRawFragment();
+        return new URI(scheme + ":" + uri.getRawSchemeSpecificPart() + (fragment == null ? "" : "#" + fragment));
+    }
+
     @Override
     public <T extends ParseObject> SubscriptionHandling<T> subscribe(ParseQuery<T> query) {
-        int requestId = requestIdGenerator();
-        Subscription<T> subscription = new Subscription<>(requestId, query);
-        subscriptions.put(requestId, subscription);
+        ParseQuery.State<T> state = query.getBuilder().build();
+        String key = multiplexSubscriptions ? canonicalKey(state) : null;
+
+        ServerSubscription<T> serverSubscription = null;
+        final Subscription<T> subscription;
+        boolean joined = false;
+        synchronized (sharedSubscriptions) {
+            if (key != null) {
+                //noinspection unchecked
+                serverSubscription = (ServerSubscription<T>) sharedSubscriptions.get(key);
+                joined = serverSubscription != null;
+            }
+            if (!joined) {
+                int requestId = requestIdGenerator();
+                serverSubscription = new ServerSubscription<>(requestId, state, key);
+                subscriptions.put(requestId, serverSubscription);
+                if (key != null) {
+                    sharedSubscriptions.put(key, serverSubscription);
+                }
+            }
+            subscription = new Subscription<>(serverSubscription.getRequestId(), query, state);
+            serverSubscription.addMember();
+            if (!joined) {
+                serverSubscription.add(subscription);
+            }
+            List<Subscription<? extends ParseObject>> querySubscriptions = subscriptionsByQuery.get(query);
+            if (querySubscriptions == null) {
+                querySubscriptions = new ArrayList<>(1);
+                subscriptionsByQuery.put(query, querySubscriptions);
+            }
+            querySubscriptions.add(subscription);
+        }
 
+        if (joined) {
+            // Added on the stripe the server subscription is confirmed on, so the subscription is told
+            // it is subscribed exactly once, and before its first event
+            final ServerSubscription<T> joinedSubscription = serverSubscription;
+            final ParseQuery<T> subscribedQuery = query;
+            dispatchExecutor.forKey(serverSubscription.getRequestId()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    joinedSubscription.add(subscription);
+                    if (joinedSubscription.isSubscribed()) {
+                        subscription.didSubscribe(subscribedQuery);
+                    }
+                }
+            });
+            return subscription;
+        }
+
+        metrics.onSubscribed(serverSubscription.getRequestId());
+        outboundQueue.subscribe(serverSubscription);
         if (isConnected()) {
-            sendSubscription(subscription);
-        } else if (userInitiatedDisconnect) {
+            flushOutboundQueue();
+        } else if (connectionState.get().isUserInitiatedDisconnect()) {
             Log.w(LOG_TAG, "Warning: The client was explicitly disconnected! You must explicitly call .reconnect() in order to process your subscriptions.");
         } else {
             connectIfNeeded();
@@ -104,32 +251,34 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
     }
 
     public void connectIfNeeded() {
-        switch (getWebSocketState()) {
-            case CONNECTED:
-                // nothing to do
-                break;
-            case CONNECTING:
-                // just wait for it to finish connecting
-                break;
-
-            case NONE:
-            case DISCONNECTING:
-            case DISCONNECTED:
-                reconnect();
-                break;
-
-            default:
-
-                break;
+        while (true) {
+            ConnectionState current = connectionState.get();
+            if (!needsConnection(current)) {
+                return;
+            }
+            reconnectScheduler.cancel();
+            serverAllowsReconnect = true;
+            // Fails if another thread replaced the socket first, in which case it may not be needed anymore
+            if (openWebSocket(current)) {
+                return;
+            }
         }
     }
 
     @Override
     public <T extends ParseObject> void unsubscribe(final ParseQuery<T> query) {
         if (query != null) {
-            for (Subscription<? extends ParseObject> subscription : subscriptions.values()) {
-                if (query.equals(subscription.getQuery())) {
-                    sendUnsubscription(subscription);
+            List<Subscription<? extends ParseObject>> querySubscriptions;
+            synchronized (sharedSubscriptions) {
+                querySubscriptions = subscriptionsByQuery.remove(query);
+            }
+            if (querySubscriptions != null) {
+                boolean queued = false;
+                for (Subscription<? extends ParseObject> subscription : querySubscriptions) {
+                    queued |= release(subscription);
+                }
+                if (queued) {
+                    flushOutboundQueue();
                 }
             }
         }
@@ -138,35 +287,62 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
     @Override
     public <T extends ParseObject> void unsubscribe(final ParseQuery<T> query, final SubscriptionHandling<T> subscriptionHandling) {
         if (query != null && subscriptionHandling != null) {
-            for (Subscription<? extends ParseObject> subscription : subscriptions.values()) {
-                if (query.equals(subscription.getQuery()) && subscriptionHandling.equals(subscription)) {
-                    sendUnsubscription(subscription);
-                }
+            Subscription<? extends ParseObject> subscription = removeSubscription(query, subscriptionHandling);
+            if (subscription != null && release(subscription)) {
+                flushOutboundQueue();
             }
         }
     }
 
     @Override
-    public synchronized void reconnect() {
-        if (webSocketClient != null) {
-            webSocketClient.close();
+    public void unsubscribeAll(Collection<? extends SubscriptionHandling<? extends ParseObject>> subscriptionHandlings) {
+        if (subscriptionHandlings != null) {
+            boolean queued = false;
+            for (SubscriptionHandling<? extends ParseObject> subscriptionHandling : subscriptionHandlings) {
+                if (subscriptionHandling instanceof Subscription) {
+                    Subscription<? extends ParseObject> subscription = removeSubscription(
+                            ((Subscription<? extends ParseObject>) subscriptionHandling).getQuery(), subscriptionHandling);
+                    if (subscription != null) {
+                        queued |= release(subscription);
+                    }
+                }
+            }
+            // Written together, however many subscriptions were released
+            if (queued) {
+                flushOutboundQueue();
+            }
         }
+    }
 
-        userInitiatedDisconnect = false;
-        hasReceivedConnected = false;
-        webSocketClient = webSocketClientFactory.createInstance(webSocketClientCallback, uri);
-        webSocketClient.open();
+    @Override
+    public void reconnect() {
+        reconnectScheduler.cancel();
+        serverAllowsReconnect = true;
+        openWebSocket(null);
     }
 
     @Override
-    public synchronized void disconnect() {
-        if (webSocketClient != null) {
-            webSocketClient.close();
-            webSocketClient = null;
+    public void disconnect() {
+        reconnectScheduler.cancel();
+        ConnectionState current;
+        do {
+            current = connectionState.get();
+        } while (!connectionState.compareAndSet(current, current.disconnecting()));
+        if (current.getClient() != null) {
+            current.getClient().close();
         }
+    }
 
-        userInitiatedDisconnect = true;
-        hasReceivedConnected = false;
+    @Override
+    public long getLastResubscribeDurationMillis() {
+        long durationNanos = lastResubscribeDurationNanos;
+        return durationNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    @Override
+    public long getRoundTripTimeMillis() {
+        long nanos = roundTripTime.getNanos();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
     }
 
     @Override
@@ -181,94 +357,323 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
 
     // Private methods
 
-    private synchronized int requestIdGenerator() {
-        return requestIdCount++;
+    /**
+     * Replaces the socket with a new one to the current endpoint. The replaced socket is closed, and
+     * anything it reports from then on is dropped.
+     *
+     * @param expected The state to replace, or null to replace whichever state is current.
+     * @return Whether the socket was replaced; false if the state was no longer the expected one.
+     */
+    private boolean openWebSocket(ConnectionState expected) {
+        while (true) {
+            ConnectionState current = connectionState.get();
+            if (expected != null && current != expected) {
+                return false;
+            }
+            URI uri = endpoints.current();
+            WebSocketClient client = webSocketClientFactory.createInstance(
+                    getWebSocketClientCallback(current.getGeneration() + 1, uri), uri);
+            if (connectionState.compareAndSet(current, current.connecting(client, uri))) {
+                if (current.getClient() != null) {
+                    current.getClient().close();
+                }
+                client.open();
+                return true;
+            }
+            // Another thread changed the state first. The socket was never opened, so it is just dropped
+        }
+    }
+
+    /**
+     * Moves the socket of the given generation to a new phase, if it is in one of the given phases.
+     *
+     * @return The new state, or null if the socket was replaced or is in another phase.
+     */
+    private ConnectionState transition(int generation, ConnectionState.Phase to, ConnectionState.Phase... from) {
+        while (true) {
+            ConnectionState current = connectionState.get();
+            if (!current.is(generation, from)) {
+                return null;
+            }
+            ConnectionState next = current.withPhase(to);
+            if (connectionState.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Records that the socket of the given generation closed or failed.
+     *
+     * @return The new state, or null if the socket was replaced or its close was already recorded.
+     */
+    private ConnectionState socketClosed(int generation, boolean failed) {
+        while (true) {
+            ConnectionState current = connectionState.get();
+            if (!current.is(generation, ConnectionState.Phase.CONNECTING, ConnectionState.Phase.OPEN,
+                    ConnectionState.Phase.CONNECTED, ConnectionState.Phase.DISCONNECTING)) {
+                return null;
+            }
+            // A failure is not what the app asked for, even while it disconnects
+            ConnectionState next = current.closed(!failed && current.isUserInitiatedDisconnect());
+            if (connectionState.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Moves to the server we were redirected to. The connect and every subscription are replayed once
+     * it confirms the connection, as after any reconnect.
+     *
+     * @param generation The generation of the socket the redirect was read from.
+     */
+    private void redirect(String url, int generation) {
+        URI redirectUri;
+        try {
+            redirectUri = toWebSocketUri(url);
+        } catch (URISyntaxException e) {
+            Log.w(LOG_TAG, "Ignoring redirect to invalid URL " + url);
+            return;
+        }
+        ConnectionState current = connectionState.get();
+        if (current.getGeneration() != generation || current.isUserInitiatedDisconnect()) {
+            return;
+        }
+        URI next = endpoints.redirect(redirectUri);
+        if (next == null) {
+            Log.w(LOG_TAG, "Ignoring redirect to " + redirectUri + " after too many redirects in a row");
+            return;
+        }
+        Log.v(LOG_TAG, "Redirected to " + redirectUri + ", connecting to " + next);
+        reconnectScheduler.cancel();
+        openWebSocket(current);
+    }
+
+    /**
+     * @param closed The state after the socket closed. The reconnect is skipped if the state changed
+     *               since, e.g. because the app reconnected or disconnected.
+     */
+    private void scheduleReconnect(final ConnectionState closed) {
+        if (!reconnectScheduler.isEnabled() || closed.isUserInitiatedDisconnect() || !serverAllowsReconnect) {
+            return;
+        }
+        boolean scheduled = reconnectScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!serverAllowsReconnect || connectionState.get() != closed) {
+                    return;
+                }
+                Log.v(LOG_TAG, "Reconnecting");
+                if (openWebSocket(closed)) {
+                    metrics.onReconnectAttempt();
+                }
+            }
+        });
+        if (!scheduled) {
+            Log.w(LOG_TAG, "Giving up reconnecting");
+        }
+    }
+
+    /**
+     * Removes a subscription from the query index.
+     *
+     * @return The subscription, or null if it does not belong to the query or was already removed.
+     */
+    private Subscription<? extends ParseObject> removeSubscription(ParseQuery<? extends ParseObject> query,
+                                                                   SubscriptionHandling<? extends ParseObject> subscriptionHandling) {
+        synchronized (sharedSubscriptions) {
+            List<Subscription<? extends ParseObject>> querySubscriptions = subscriptionsByQuery.get(query);
+            if (querySubscriptions == null || !querySubscriptions.remove(subscriptionHandling)) {
+                return null;
+            }
+            if (querySubscriptions.isEmpty()) {
+                subscriptionsByQuery.remove(query);
+            }
+            return (Subscription<? extends ParseObject>) subscriptionHandling;
+        }
+    }
+
+    /**
+     * Removes a subscription from the server subscription it belongs to. The server is only told to
+     * unsubscribe once no other subscription shares it, and only if it was told to subscribe.
+     *
+     * @return Whether an unsubscribe was queued, in which case the outbound queue needs flushing.
+     */
+    private <T extends ParseObject> boolean release(final Subscription<T> subscription) {
+        final ServerSubscription<T> serverSubscription = subscriptionForRequestId(subscription.getRequestId());
+        if (serverSubscription == null) {
+            return false;
+        }
+
+        boolean last;
+        synchronized (sharedSubscriptions) {
+            last = serverSubscription.isUnsubscribing() || serverSubscription.getMemberCount() <= 1;
+            if (last) {
+                serverSubscription.setUnsubscribing();
+                String key = serverSubscription.getKey();
+                if (key != null && sharedSubscriptions.get(key) == serverSubscription) {
+                    sharedSubscriptions.remove(key);
+                }
+            } else {
+                serverSubscription.removeMember();
+            }
+        }
+
+        if (!last) {
+            // After the subscription was added, if it joined the server subscription
+            dispatchExecutor.forKey(serverSubscription.getRequestId()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    serverSubscription.remove(subscription);
+                    subscription.didUnsubscribe(subscription.getQuery());
+                }
+            });
+            return false;
+        }
+        if (outboundQueue.unsubscribe(serverSubscription)) {
+            return true;
+        }
+        finishUnsubscribe(serverSubscription);
+        return false;
+    }
+
+    private String canonicalKey(ParseQuery.State<?> state) {
+        try {
+            return ServerSubscription.canonicalKey(state);
+        } catch (JSONException | RuntimeException e) {
+            // The query will fail to encode when it is sent too, and report it then
+            return null;
+        }
     }
 
-    private WebSocketClient.State getWebSocketState() {
-        WebSocketClient.State state = webSocketClient == null ? null : webSocketClient.getState();
+    private int requestIdGenerator() {
+        return requestIdCount.getAndAdd(requestIdStride);
+    }
+
+    private static WebSocketClient.State getWebSocketState(ConnectionState connection) {
+        WebSocketClient.State state = connection.getClient() == null ? null : connection.getClient().getState();
         return state == null ? WebSocketClient.State.NONE : state;
     }
 
     private boolean isConnected() {
-        return hasReceivedConnected && inAnyState(WebSocketClient.State.CONNECTED);
+        ConnectionState current = connectionState.get();
+        return current.getPhase() == ConnectionState.Phase.CONNECTED
+                && getWebSocketState(current) == WebSocketClient.State.CONNECTED;
     }
 
-    private boolean inAnyState(WebSocketClient.State... states) {
-        return Arrays.asList(states).contains(getWebSocketState());
+    /**
+     * @return Whether there is no socket, or it closed. A socket may say it closed before its close
+     * callback arrives.
+     */
+    private static boolean needsConnection(ConnectionState connection) {
+        switch (connection.getPhase()) {
+            case CONNECTING:
+                // just wait for it to finish connecting
+                return false;
+            case OPEN:
+            case CONNECTED:
+                switch (getWebSocketState(connection)) {
+                    case NONE:
+                    case DISCONNECTING:
+                    case DISCONNECTED:
+                        return true;
+                    default:
+                        return false;
+                }
+            default:
+                return true;
+        }
     }
 
-    private Task<Void> handleOperationAsync(final String message) {
-        return Task.call(new Callable<Void>() {
-            public Void call() throws Exception {
-                parseMessage(message);
-                return null;
+    private void handleOperationAsync(String message, int generation) throws LiveQueryException {
+        long receivedNanos = System.nanoTime();
+        ServerMessage serverMessage;
+        int dispatchKey = 0;
+        try {
+            serverMessage = codec.decode(message, messageFilter);
+            serverMessage.setReceivedNanos(receivedNanos);
+            serverMessage.setConnectionGeneration(generation);
+            if (serverMessage.hasRequestId()) {
+                // Messages for the same request id are handled in order, others may be handled in parallel
+                dispatchKey = serverMessage.getRequestId();
             }
-        }, taskExecutor);
+        } catch (JSONException e) {
+            metrics.onDecodeFailure();
+            throw new LiveQueryException.InvalidResponseException(message);
+        }
+
+        if (!serverMessage.isDiscarded()) {
+            inboundQueue.offer(serverMessage, dispatchKey);
+        }
     }
 
-    private Task<Void> sendOperationAsync(final ClientOperation clientOperation) {
+    private Task<Void> sendOperationAsync(final WebSocketClient client, final ClientOperation clientOperation) {
         return Task.call(new Callable<Void>() {
             public Void call() throws Exception {
-                JSONObject jsonEncoded = clientOperation.getJSONObjectRepresentation();
-                String jsonString = jsonEncoded.toString();
+                String jsonString = codec.encode(clientOperation);
                 if (Parse.getLogLevel() <= Parse.LOG_LEVEL_DEBUG) {
                     Log.d(LOG_TAG, "Sending over websocket: " + jsonString);
                 }
-                webSocketClient.send(jsonString);
+                client.send(jsonString);
                 return null;
             }
         }, taskExecutor);
     }
 
-    private void parseMessage(String message) throws LiveQueryException {
+    private void handleMessage(ServerMessage serverMessage) throws LiveQueryException {
         try {
-            JSONObject jsonObject = new JSONObject(message);
-            String rawOperation = jsonObject.getString("op");
+            String rawOperation = serverMessage.getOp();
 
             switch (rawOperation) {
                 case "connected":
-                    hasReceivedConnected = true;
+                    ConnectionState connected = transition(serverMessage.getConnectionGeneration(),
+                            ConnectionState.Phase.CONNECTED, ConnectionState.Phase.CONNECTING, ConnectionState.Phase.OPEN);
+                    if (connected == null) {
+                        // From a replaced socket, or confirmed already
+                        break;
+                    }
+                    sampleRoundTrip(connectSentNanos, serverMessage.getReceivedNanos());
+                    connectSentNanos = 0;
+                    endpoints.connected(connected.getUri());
+                    reconnectScheduler.reset();
+                    metrics.onConnected();
                     dispatchConnected();
                     Log.v(LOG_TAG, "Connected, sending pending subscription");
-                    for (Subscription<? extends ParseObject> subscription : subscriptions.values()) {
-                        sendSubscription(subscription);
-                    }
+                    resubscribeAll();
                     break;
                 case "redirect":
-                    String url = jsonObject.getString("url");
-                    // TODO: Handle redirect.
-                    Log.d(LOG_TAG, "Redirect is not yet handled");
+                    redirect(serverMessage.getUrl(), serverMessage.getConnectionGeneration());
                     break;
                 case "subscribed":
-                    handleSubscribedEvent(jsonObject);
+                    handleSubscribedEvent(serverMessage);
                     break;
                 case "unsubscribed":
-                    handleUnsubscribedEvent(jsonObject);
+                    handleUnsubscribedEvent(serverMessage);
                     break;
                 case "enter":
-                    handleObjectEvent(Subscription.Event.ENTER, jsonObject);
+                    handleObjectEvent(Subscription.Event.ENTER, serverMessage);
                     break;
                 case "leave":
-                    handleObjectEvent(Subscription.Event.LEAVE, jsonObject);
+                    handleObjectEvent(Subscription.Event.LEAVE, serverMessage);
                     break;
                 case "update":
-                    handleObjectEvent(Subscription.Event.UPDATE, jsonObject);
+                    handleObjectEvent(Subscription.Event.UPDATE, serverMessage);
                     break;
                 case "create":
-                    handleObjectEvent(Subscription.Event.CREATE, jsonObject);
+                    handleObjectEvent(Subscription.Event.CREATE, serverMessage);
                     break;
                 case "delete":
-                    handleObjectEvent(Subscription.Event.DELETE, jsonObject);
+                    handleObjectEvent(Subscription.Event.DELETE, serverMessage);
                     break;
                 case "error":
-                    handleErrorEvent(jsonObject);
+                    handleErrorEvent(serverMessage);
                     break;
                 default:
-                    throw new LiveQueryException.InvalidResponseException(message);
+                    throw new LiveQueryException.InvalidResponseException(serverMessage.toString());
             }
         } catch (JSONException e) {
-            throw new LiveQueryException.InvalidResponseException(message);
+            throw new LiveQueryException.InvalidResponseException(serverMessage.toString());
         }
     }
 
@@ -278,13 +683,25 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
         }
     }
 
-    private void dispatchDisconnected() {
+    private void dispatchDisconnected(boolean userInitiated) {
         for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
-            callback.onLiveQueryClientDisconnected(this, userInitiatedDisconnect);
+            callback.onLiveQueryClientDisconnected(this, userInitiated);
         }
     }
 
 
+    private void dispatchEventsDropped() {
+        // Drops are reported in batches, so a burst of them results in a single callback
+        if (droppedEventCount.getAndIncrement() == 0) {
+            Task.call(new Callable<Void>() {
+                public Void call() throws Exception {
+                    dispatchServerError(new LiveQueryException.EventsDroppedException(droppedEventCount.getAndSet(0)));
+                    return null;
+                }
+            }, taskExecutor);
+        }
+    }
+
     private void dispatchServerError(LiveQueryException exc) {
         for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
             callback.onLiveQueryError(this, exc);
@@ -292,101 +709,302 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
     }
 
     private void dispatchSocketError(Throwable reason) {
-        userInitiatedDisconnect = false;
-
         for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
             callback.onSocketError(this, reason);
         }
 
-        dispatchDisconnected();
+        dispatchDisconnected(false);
     }
 
-    private <T extends ParseObject> void handleSubscribedEvent(JSONObject jsonObject) throws JSONException {
-        final int requestId = jsonObject.getInt("requestId");
-        final Subscription<T> subscription = subscriptionForRequestId(requestId);
-        if (subscription != null) {
-            subscription.didSubscribe(subscription.getQuery());
+    private <T extends ParseObject> void handleSubscribedEvent(ServerMessage serverMessage) throws JSONException {
+        final int requestId = serverMessage.getRequestId();
+        final ServerSubscription<T> serverSubscription = subscriptionForRequestId(requestId);
+        if (serverSubscription != null) {
+            Long sentNanos = subscribeSentNanos.remove(requestId);
+            if (sentNanos != null) {
+                sampleRoundTrip(sentNanos, serverMessage.getReceivedNanos());
+            }
+            resubscribeSettled(requestId);
+            endpoints.settled();
+            serverSubscription.didSubscribe();
         }
     }
 
-    private <T extends ParseObject> void handleUnsubscribedEvent(JSONObject jsonObject) throws JSONException {
-        final int requestId = jsonObject.getInt("requestId");
-        final Subscription<T> subscription = subscriptionForRequestId(requestId);
-        if (subscription != null) {
-            subscription.didUnsubscribe(subscription.getQuery());
+    private <T extends ParseObject> void handleUnsubscribedEvent(ServerMessage serverMessage) throws JSONException {
+        final int requestId = serverMessage.getRequestId();
+        final ServerSubscription<T> serverSubscription = subscriptionForRequestId(requestId);
+        if (serverSubscription != null) {
+            subscribeSentNanos.remove(requestId);
+            serverSubscription.didUnsubscribe();
             subscriptions.remove(requestId);
+            metrics.onUnsubscribed(requestId);
         }
     }
 
-    private <T extends ParseObject> void handleObjectEvent(Subscription.Event event, JSONObject jsonObject) throws JSONException {
-        final int requestId = jsonObject.getInt("requestId");
-        final Subscription<T> subscription = subscriptionForRequestId(requestId);
-        if (subscription != null) {
-            T object = ParseObject.fromJSON(jsonObject.getJSONObject("object"), subscription.getQueryState().className(), ParseDecoder.get(), subscription.getQueryState().selectedKeys());
-            subscription.didReceive(event, subscription.getQuery(), object);
+    private <T extends ParseObject> void handleObjectEvent(Subscription.Event event, ServerMessage serverMessage) throws JSONException {
+        if (serverMessage.isDiscarded()) {
+            return;
+        }
+        final int requestId = serverMessage.getRequestId();
+        final ServerSubscription<T> serverSubscription = subscriptionForRequestId(requestId);
+        if (serverSubscription != null) {
+            // Decoded at most once, however many subscriptions share the server subscription
+            LiveQueryEvent<T> liveQueryEvent = new LiveQueryEvent<>(event, serverMessage.getObject(),
+                    serverSubscription.getQueryState(), serverMessage.getReceivedNanos(), identityMap);
+            if (identityMap != null) {
+                // Merged into the shared instance now, in the order events are received: handlers that
+                // decode later, or never, would merge stale state or bring back deleted objects
+                liveQueryEvent.getObject();
+                if (event == Subscription.Event.DELETE) {
+                    identityMap.remove(liveQueryEvent.getClassName(), liveQueryEvent.getObjectId());
+                }
+            }
+            serverSubscription.didReceive(liveQueryEvent);
+            // Once, however many subscriptions share the server subscription
+            if (serverMessage.getReceivedNanos() != 0) {
+                metrics.onEventDelivered(requestId, System.nanoTime() - serverMessage.getReceivedNanos());
+            }
         }
     }
 
-    private <T extends ParseObject> void handleErrorEvent(JSONObject jsonObject) throws JSONException {
-        int requestId = jsonObject.getInt("requestId");
-        int code = jsonObject.getInt("code");
-        String error = jsonObject.getString("error");
-        Boolean reconnect = jsonObject.getBoolean("reconnect");
-        final Subscription<T> subscription = subscriptionForRequestId(requestId);
+    private <T extends ParseObject> void handleErrorEvent(ServerMessage serverMessage) throws JSONException {
+        int code = serverMessage.getCode();
+        String error = serverMessage.getError();
+        Boolean reconnect = serverMessage.getReconnect();
         LiveQueryException exc = new LiveQueryException.ServerReportedException(code, error, reconnect);
 
-        if (subscription != null) {
-            subscription.didEncounter(exc, subscription.getQuery());
+        if (serverMessage.hasRequestId()) {
+            final ServerSubscription<T> serverSubscription = subscriptionForRequestId(serverMessage.getRequestId());
+            if (serverSubscription != null) {
+                serverSubscription.didEncounter(exc);
+            }
+        } else if (!reconnect) {
+            // An error about the connection itself, which will fail again if we retry
+            serverAllowsReconnect = false;
+            reconnectScheduler.cancel();
         }
 
         dispatchServerError(exc);
     }
 
-    private <T extends ParseObject> Subscription<T> subscriptionForRequestId(int requestId) {
+    private <T extends ParseObject> ServerSubscription<T> subscriptionForRequestId(int requestId) {
         //noinspection unchecked
-        return (Subscription<T>) subscriptions.get(requestId);
+        return (ServerSubscription<T>) subscriptions.get(requestId);
     }
 
-    private <T extends ParseObject> void sendSubscription(final Subscription<T> subscription) {
-        ParseUser.getCurrentSessionTokenAsync().onSuccess(new Continuation<String, Void>() {
-            @Override
-            public Void then(Task<String> task) throws Exception {
-                String sessionToken = task.getResult();
-                SubscribeClientOperation<T> op = new SubscribeClientOperation<>(subscription.getRequestId(), subscription.getQueryState(), sessionToken);
+    /**
+     * Completes an unsubscribe the server does not need to hear about.
+     */
+    private void finishUnsubscribe(ServerSubscription<?> serverSubscription) {
+        subscribeSentNanos.remove(serverSubscription.getRequestId());
+        resubscribeSettled(serverSubscription.getRequestId());
+        if (subscriptions.remove(serverSubscription.getRequestId(), serverSubscription)) {
+            serverSubscription.didUnsubscribe();
+            metrics.onUnsubscribed(serverSubscription.getRequestId());
+        }
+    }
 
-                // dispatch errors
-                sendOperationAsync(op).continueWith(new Continuation<Void, Void>() {
-                    public Void then(Task<Void> task) {
-                        Exception error = task.getError();
-                        if (error != null) {
-                            if (error instanceof RuntimeException) {
-                                subscription.didEncounter(new LiveQueryException.UnknownException(
-                                        "Error when subscribing", (RuntimeException) error), subscription.getQuery());
-                            }
-                        }
+    /**
+     * Writes the outbound queue once the session token is known. Does nothing until the server has
+     * confirmed the connection; the queue is flushed again when it does. Operations written to a
+     * socket that is closing are not lost either, as {@link #resubscribeAll()} settles them on the
+     * next connection.
+     */
+    private void flushOutboundQueue() {
+        if (outboundQueue.isEmpty()) {
+            return;
+        }
+        ParseUser.getCurrentSessionTokenAsync().onSuccessTask(new Continuation<String, Task<Void>>() {
+            @Override
+            public Task<Void> then(Task<String> task) throws Exception {
+                final String sessionToken = task.getResult();
+                return Task.call(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        writeOutboundQueue(sessionToken);
                         return null;
                     }
-                });
+                }, taskExecutor);
+            }
+        }).continueWith(new Continuation<Void, Void>() {
+            public Void then(Task<Void> task) {
+                Exception error = task.getError();
+                if (error != null) {
+                    Log.e(LOG_TAG, "Error when sending operations", error);
+                }
                 return null;
             }
         });
     }
 
-    private void sendUnsubscription(Subscription subscription) {
-        sendOperationAsync(new UnsubscribeClientOperation(subscription.getRequestId()));
+    private void writeOutboundQueue(String sessionToken) {
+        synchronized (writeLock) {
+            ConnectionState current = connectionState.get();
+            if (current.getPhase() != ConnectionState.Phase.CONNECTED) {
+                return;
+            }
+            WebSocketClient client = current.getClient();
+
+            List<OutboundQueue.Operation> operations = outboundQueue.drain();
+            List<String> messages = new ArrayList<>(operations.size());
+            // Only the first subscribe is timed; the server answers the others after handling the
+            // ones before them, which is not network time
+            int timedIndex = -1;
+            int timedRequestId = 0;
+            for (OutboundQueue.Operation operation : operations) {
+                String message = operation.isSubscribe()
+                        ? encodeSubscription(operation.getSubscription(), sessionToken)
+                        : encodeUnsubscription(operation.getSubscription());
+                if (message != null) {
+                    if (operation.isSubscribe() && timedIndex < 0) {
+                        timedIndex = messages.size();
+                        timedRequestId = operation.getSubscription().getRequestId();
+                    }
+                    messages.add(message);
+                }
+            }
+
+            boolean debug = Parse.getLogLevel() <= Parse.LOG_LEVEL_DEBUG;
+            for (int i = 0; i < messages.size(); i++) {
+                String message = messages.get(i);
+                if (debug) {
+                    Log.d(LOG_TAG, "Sending over websocket: " + message);
+                }
+                if (i == timedIndex) {
+                    subscribeSentNanos.put(timedRequestId, System.nanoTime());
+                }
+                client.send(message);
+            }
+        }
+    }
+
+    /**
+     * Replays every subscription after the connection is (re)established. The new connection starts
+     * without subscriptions, so unsubscribes that were not confirmed are completed locally instead.
+     * All subscribe operations are written together, with a single session token lookup.
+     */
+    private void resubscribeAll() {
+        List<OutboundQueue.Operation> stale;
+        synchronized (writeLock) {
+            stale = outboundQueue.drain();
+        }
+        List<ServerSubscription<? extends ParseObject>> unsubscribed = new ArrayList<>();
+        for (OutboundQueue.Operation operation : stale) {
+            if (!operation.isSubscribe()) {
+                unsubscribed.add(operation.getSubscription());
+            }
+        }
+
+        pendingResubscribes.clear();
+        // Subscribes written to the previous connection will not be answered
+        subscribeSentNanos.clear();
+        lastResubscribeDurationNanos = -1;
+        resubscribeStartNanos = System.nanoTime();
+        synchronized (sharedSubscriptions) {
+            for (ServerSubscription<? extends ParseObject> serverSubscription : subscriptions.values()) {
+                if (serverSubscription.isUnsubscribing()) {
+                    unsubscribed.add(serverSubscription);
+                    continue;
+                }
+                serverSubscription.setSubscribed(false);
+                pendingResubscribes.add(serverSubscription.getRequestId());
+                outboundQueue.subscribe(serverSubscription);
+            }
+        }
+        if (pendingResubscribes.isEmpty()) {
+            lastResubscribeDurationNanos = 0;
+        }
+
+        for (ServerSubscription<? extends ParseObject> serverSubscription : unsubscribed) {
+            finishUnsubscribe(serverSubscription);
+        }
+        flushOutboundQueue();
+    }
+
+    private <T extends ParseObject> String encodeSubscription(ServerSubscription<T> serverSubscription, String sessionToken) {
+        try {
+            return codec.encode(new SubscribeClientOperation<>(serverSubscription.getRequestId(), serverSubscription.getQueryState(),
+                    serverSubscription.getEncodedQuery(codec), sessionToken));
+        } catch (RuntimeException e) {
+            resubscribeSettled(serverSubscription.getRequestId());
+            serverSubscription.didEncounter(new LiveQueryException.UnknownException("Error when subscribing", e));
+        } catch (JSONException e) {
+            resubscribeSettled(serverSubscription.getRequestId());
+            Log.e(LOG_TAG, "Error when subscribing", e);
+        }
+        return null;
+    }
+
+    private String encodeUnsubscription(ServerSubscription<?> serverSubscription) {
+        try {
+            return codec.encode(new UnsubscribeClientOperation(serverSubscription.getRequestId()));
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error when unsubscribing", e);
+            return null;
+        }
+    }
+
+    /**
+     * Called once the server confirmed a subscription replayed by {@link #resubscribeAll()}, or it
+     * will not be replayed after all.
+     */
+    private void resubscribeSettled(int requestId) {
+        if (pendingResubscribes.remove(requestId) && pendingResubscribes.isEmpty()) {
+            lastResubscribeDurationNanos = System.nanoTime() - resubscribeStartNanos;
+            Log.v(LOG_TAG, "All subscriptions replayed in " + TimeUnit.NANOSECONDS.toMillis(lastResubscribeDurationNanos) + "ms");
+        }
+    }
+
+    /**
+     * @param receivedNanos When the answer was read from the socket, so time spent waiting in the
+     *                      inbound queue is not counted.
+     */
+    private void sampleRoundTrip(long sentNanos, long receivedNanos) {
+        if (sentNanos != 0 && receivedNanos != 0) {
+            roundTripTime.sample(receivedNanos - sentNanos);
+        }
+    }
+
+    private InboundQueue.Handler getInboundQueueHandler() {
+        return new InboundQueue.Handler() {
+            @Override
+            public void handle(ServerMessage message) {
+                if (message.getConnectionGeneration() != connectionState.get().getGeneration()) {
+                    // Read from a socket that was replaced since
+                    return;
+                }
+                try {
+                    handleMessage(message);
+                } catch (LiveQueryException | RuntimeException e) {
+                    Log.e(LOG_TAG, "Error handling message", e);
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                dispatchEventsDropped();
+            }
+        };
     }
 
-    private WebSocketClient.WebSocketClientCallback getWebSocketClientCallback() {
+    private WebSocketClient.WebSocketClientCallback getWebSocketClientCallback(final int generation, final URI uri) {
         return new WebSocketClient.WebSocketClientCallback() {
+            private volatile boolean opened = false;
+
             @Override
             public void onOpen() {
-                hasReceivedConnected = false;
+                opened = true;
+                final ConnectionState open = transition(generation, ConnectionState.Phase.OPEN, ConnectionState.Phase.CONNECTING);
+                if (open == null) {
+                    Log.v(LOG_TAG, "Replaced socket opened");
+                    return;
+                }
                 Log.v(LOG_TAG, "Socket opened");
                 ParseUser.getCurrentSessionTokenAsync().onSuccessTask(new Continuation<String, Task<Void>>() {
                     @Override
                     public Task<Void> then(Task<String> task) throws Exception {
                         String sessionToken = task.getResult();
-                        return sendOperationAsync(new ConnectClientOperation(applicationId, sessionToken));
+                        connectSentNanos = System.nanoTime();
+                        return sendOperationAsync(open.getClient(), new ConnectClientOperation(applicationId, sessionToken));
                     }
                 }).continueWith(new Continuation<Void, Void>() {
                     public Void then(Task<Void> task) {
@@ -401,36 +1019,51 @@ class ParseLiveQueryClientImpl implements ParseLiveQueryClient {
 
             @Override
             public void onMessage(String message) {
+                if (connectionState.get().getGeneration() != generation) {
+                    // From a replaced socket
+                    return;
+                }
                 Log.v(LOG_TAG, "Socket onMessage " + message);
-                handleOperationAsync(message).continueWith(new Continuation<Void, Void>() {
-                    public Void then(Task<Void> task) {
-                        Exception error = task.getError();
-                        if (error != null) {
-                            Log.e(LOG_TAG, "Error handling message", error);
-                        }
-                        return null;
-                    }
-                });
+                try {
+                    handleOperationAsync(message, generation);
+                } catch (LiveQueryException e) {
+                    Log.e(LOG_TAG, "Error handling message", e);
+                }
             }
 
             @Override
             public void onClose() {
                 Log.v(LOG_TAG, "Socket onClose");
-                hasReceivedConnected = false;
-                dispatchDisconnected();
+                failedIfNotOpened();
+                ConnectionState closed = socketClosed(generation, false);
+                if (closed != null) {
+                    dispatchDisconnected(closed.isUserInitiatedDisconnect());
+                    scheduleReconnect(closed);
+                }
             }
 
             @Override
             public void onError(Throwable exception) {
                 PLog.e(LOG_TAG, "Socket onError", exception);
-                hasReceivedConnected = false;
-                dispatchSocketError(exception);
+                failedIfNotOpened();
+                ConnectionState closed = socketClosed(generation, true);
+                if (closed != null) {
+                    dispatchSocketError(exception);
+                    scheduleReconnect(closed);
+                }
             }
 
             @Override
             public void stateChanged() {
                 PLog.v(LOG_TAG, "Socket stateChanged");
             }
+
+            private void failedIfNotOpened() {
+                // Reconnect to another endpoint if this one can't be reached
+                if (!opened) {
+                    endpoints.failed(uri);
+                }
+            }
         };
     }
 }
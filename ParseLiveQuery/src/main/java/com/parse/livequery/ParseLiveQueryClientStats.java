@@ -0,0 +1,21 @@
+package com.parse.livequery;
+
+/**
+ * Measurements of a {@link ParseLiveQueryClient}. Every client returned by
+ * {@link ParseLiveQueryClient.Factory} implements it; kept apart from {@link ParseLiveQueryClient} so
+ * existing implementations of that interface don't have to.
+ */
+public interface ParseLiveQueryClientStats {
+
+    /**
+     * @return How long it took after the last connection was established until the server had
+     * confirmed every subscription replayed on it, in milliseconds; -1 if that has not happened yet.
+     */
+    long getLastResubscribeDurationMillis();
+
+    /**
+     * @return The smoothed time the server takes to answer a connect or subscribe, in milliseconds;
+     * -1 before the first answer. Useful to adapt timeouts and batching to the network.
+     */
+    long getRoundTripTimeMillis();
+}
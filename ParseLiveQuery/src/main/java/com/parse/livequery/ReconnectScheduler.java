@@ -0,0 +1,135 @@
+package com.parse.livequery;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules reconnection attempts with exponential backoff and full jitter: the n-th attempt is made
+ * after a random delay between zero and {@code min(maxDelay, initialDelay * 2^n)}, so clients that
+ * lose their connection at the same time do not all come back at the same time.
+ */
+class ReconnectScheduler {
+
+    // Keeps initialDelay * 2^n from overflowing
+    private static final int MAX_SHIFT = 30;
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final Random random;
+    private final ScheduledExecutorService scheduler;
+
+    private int attempts = 0;
+    // Until it starts running, so a failure of the attempt itself can schedule the next one
+    private Attempt pending;
+
+    /* package */ ReconnectScheduler(long initialDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this(initialDelayMillis, maxDelayMillis, maxAttempts, SharedScheduler.INSTANCE, new Random());
+    }
+
+    /* package */ ReconnectScheduler(long initialDelayMillis, long maxDelayMillis, int maxAttempts,
+                                     ScheduledExecutorService scheduler, Random random) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxAttempts = maxAttempts;
+        this.scheduler = scheduler;
+        this.random = random;
+    }
+
+    /**
+     * @return Whether any attempt may be made, i.e. automatic reconnection is configured.
+     */
+    /* package */ boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    /**
+     * Schedules the next attempt, unless one is already scheduled.
+     *
+     * @param reconnect The attempt to make.
+     * @return Whether an attempt is scheduled; false once the maximum number of attempts was made.
+     */
+    /* package */ synchronized boolean schedule(Runnable reconnect) {
+        if (pending != null) {
+            return true;
+        }
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+        long delay = nextDelayMillis();
+        attempts++;
+        // The attempt can't start before pending is set, as it takes the lock first
+        pending = new Attempt(reconnect);
+        pending.future = scheduler.schedule(pending, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Cancels the scheduled attempt, if any.
+     */
+    /* package */ synchronized void cancel() {
+        if (pending != null) {
+            pending.future.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Cancels the scheduled attempt and starts backing off from the initial delay again. Called once
+     * the connection is established.
+     */
+    /* package */ synchronized void reset() {
+        cancel();
+        attempts = 0;
+    }
+
+    /* package */ synchronized long nextDelayMillis() {
+        long ceiling = initialDelayMillis << Math.min(attempts, MAX_SHIFT);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    private class Attempt implements Runnable {
+
+        private final Runnable reconnect;
+        private ScheduledFuture<?> future;
+
+        private Attempt(Runnable reconnect) {
+            this.reconnect = reconnect;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ReconnectScheduler.this) {
+                // Cancelled after it was due
+                if (pending != this) {
+                    return;
+                }
+                pending = null;
+            }
+            reconnect.run();
+        }
+    }
+
+    /**
+     * A single thread shared by every client, as attempts are short and rare; it is a daemon thread
+     * so it doesn't keep the process alive.
+     */
+    private static class SharedScheduler {
+
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ParseLiveQuery-reconnect");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
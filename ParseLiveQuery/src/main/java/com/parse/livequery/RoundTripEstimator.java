@@ -0,0 +1,30 @@
+package com.parse.livequery;
+
+/**
+ * A smoothed round trip time, kept the way TCP keeps one: each sample moves the estimate an eighth
+ * of the way towards it, so a single slow reply does not swing it.
+ */
+class RoundTripEstimator {
+
+    private static final int SMOOTHING_SHIFT = 3;
+
+    private long smoothedNanos = -1;
+
+    /* package */ synchronized void sample(long roundTripNanos) {
+        if (roundTripNanos < 0) {
+            return;
+        }
+        if (smoothedNanos < 0) {
+            smoothedNanos = roundTripNanos;
+        } else {
+            smoothedNanos += (roundTripNanos - smoothedNanos) >> SMOOTHING_SHIFT;
+        }
+    }
+
+    /**
+     * @return The smoothed round trip time in nanoseconds, or -1 before the first sample.
+     */
+    /* package */ synchronized long getNanos() {
+        return smoothedNanos;
+    }
+}
@@ -0,0 +1,301 @@
+package com.parse.livequery;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+
+/**
+ * A frame received from the live query server.
+ * <p>
+ * Frames are read with a pull parser so that only the fields we need are materialized. The
+ * {@code object} payload of an event is only turned into a {@link JSONObject} when the
+ * {@link Filter} says that a subscription will consume it; frames for unknown request ids stop
+ * being read as soon as that is known.
+ */
+class ServerMessage {
+
+    interface Filter {
+        /**
+         * @param requestId The request id of the event.
+         * @return Whether the object payload of an event for this request id will be consumed.
+         */
+        boolean wantsObject(int requestId);
+    }
+
+    private String op;
+    private int requestId;
+    private boolean hasRequestId;
+    private int code;
+    private boolean hasCode;
+    private String error;
+    private Boolean reconnect;
+    private String url;
+    private JSONObject object;
+    private boolean discarded;
+    private long receivedNanos;
+    private int connectionGeneration;
+
+    private ServerMessage() {
+    }
+
+    /* package */ static ServerMessage parse(String message, Filter filter) throws JSONException {
+        ServerMessage result = new ServerMessage();
+        JsonReader reader = new JsonReader(new StringReader(message));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "op":
+                        result.op = reader.nextString();
+                        break;
+                    case "requestId":
+                        result.requestId = reader.nextInt();
+                        result.hasRequestId = true;
+                        break;
+                    case "code":
+                        result.code = reader.nextInt();
+                        result.hasCode = true;
+                        break;
+                    case "error":
+                        result.error = reader.nextString();
+                        break;
+                    case "reconnect":
+                        result.reconnect = reader.nextBoolean();
+                        break;
+                    case "url":
+                        result.url = reader.nextString();
+                        break;
+                    case "object":
+                        if (result.hasRequestId && !filter.wantsObject(result.requestId)) {
+                            reader.skipValue();
+                        } else {
+                            result.object = readObject(reader);
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+
+                if (result.isObjectEvent() && result.hasRequestId && !filter.wantsObject(result.requestId)) {
+                    // Nobody is listening, so there is no point in reading the rest of the frame.
+                    result.discarded = true;
+                    result.object = null;
+                    return result;
+                }
+            }
+            reader.endObject();
+            return result;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // ignored, we are reading from a string
+            }
+        }
+    }
+
+    /* package */ String getOp() throws JSONException {
+        if (op == null) {
+            throw new JSONException("No value for op");
+        }
+        return op;
+    }
+
+    /* package */ boolean hasRequestId() {
+        return hasRequestId;
+    }
+
+    /* package */ int getRequestId() throws JSONException {
+        if (!hasRequestId) {
+            throw new JSONException("No value for requestId");
+        }
+        return requestId;
+    }
+
+    /* package */ int getCode() throws JSONException {
+        if (!hasCode) {
+            throw new JSONException("No value for code");
+        }
+        return code;
+    }
+
+    /* package */ String getError() throws JSONException {
+        if (error == null) {
+            throw new JSONException("No value for error");
+        }
+        return error;
+    }
+
+    /* package */ boolean getReconnect() throws JSONException {
+        if (reconnect == null) {
+            throw new JSONException("No value for reconnect");
+        }
+        return reconnect;
+    }
+
+    /* package */ String getUrl() throws JSONException {
+        if (url == null) {
+            throw new JSONException("No value for url");
+        }
+        return url;
+    }
+
+    /* package */ JSONObject getObject() throws JSONException {
+        if (object == null) {
+            throw new JSONException("No value for object");
+        }
+        return object;
+    }
+
+    /**
+     * @return Whether the frame was dropped before its payload was read because no subscription
+     * wanted it.
+     */
+    /* package */ boolean isDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the frame was read from the socket.
+     */
+    /* package */ long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /* package */ void setReceivedNanos(long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    /**
+     * @return The generation of the socket the frame was read from.
+     */
+    /* package */ int getConnectionGeneration() {
+        return connectionGeneration;
+    }
+
+    /* package */ void setConnectionGeneration(int connectionGeneration) {
+        this.connectionGeneration = connectionGeneration;
+    }
+
+    /**
+     * @return The id of the object carried by an event, or null if there is none.
+     */
+    /* package */ String getObjectId() {
+        return object == null ? null : object.optString("objectId", null);
+    }
+
+    /**
+     * Folds a newer event for the same object into this one, so that only the latest state of the
+     * object is delivered. An update keeps the type of the event it is folded into, any other event
+     * replaces it.
+     *
+     * @param newer The event that was received after this one.
+     * @return The event to deliver in place of both.
+     */
+    /* package */ ServerMessage coalesce(ServerMessage newer) {
+        if (!"update".equals(newer.op)) {
+            return newer;
+        }
+        ServerMessage merged = new ServerMessage();
+        merged.op = op;
+        merged.requestId = newer.requestId;
+        merged.hasRequestId = newer.hasRequestId;
+        merged.object = newer.object;
+        merged.receivedNanos = newer.receivedNanos;
+        merged.connectionGeneration = newer.connectionGeneration;
+        return merged;
+    }
+
+    /* package */ boolean isObjectEvent() {
+        if (op == null) {
+            return false;
+        }
+        switch (op) {
+            case "create":
+            case "enter":
+            case "update":
+            case "leave":
+            case "delete":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "{op: %s, requestId: %s, object: %s}",
+                op, hasRequestId ? requestId : null, object);
+    }
+
+    private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject jsonObject = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            jsonObject.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return jsonObject;
+    }
+
+    private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            jsonArray.put(readValue(reader));
+        }
+        reader.endArray();
+        return jsonArray;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return readNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token " + token);
+        }
+    }
+
+    /**
+     * Mirrors the number handling of {@link org.json.JSONTokener} so decoded objects look the same
+     * as if they had been parsed by {@link JSONObject}.
+     */
+    private static Object readNumber(String literal) {
+        if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(literal);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException e) {
+                // fall through to double
+            }
+        }
+        return Double.valueOf(literal);
+    }
+}
@@ -0,0 +1,207 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.PointerEncoder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A subscription as known to the live query server.
+ * <p>
+ * Every {@link Subscription} handed out to the app belongs to one. When subscriptions are
+ * multiplexed, all subscriptions to equivalent queries share a single one, so the server only
+ * tracks the query once and each event is received and decoded once for all of them.
+ */
+class ServerSubscription<T extends ParseObject> {
+
+    private final int requestId;
+    private final ParseQuery.State<T> state;
+    private final String key;
+    private final List<Subscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile String encodedQuery;
+    private volatile boolean subscribed = false;
+    private boolean unsubscribing = false;
+    // Including subscriptions not added yet; guarded by the client, like unsubscribing
+    private int memberCount = 0;
+
+    /**
+     * @param requestId The request id used on the wire.
+     * @param state     The query the server evaluates.
+     * @param key       The canonical key of the query if this subscription may be shared, else null.
+     */
+    /* package */ ServerSubscription(int requestId, ParseQuery.State<T> state, String key) {
+        this.requestId = requestId;
+        this.state = state;
+        this.key = key;
+    }
+
+    /* package */ int getRequestId() {
+        return requestId;
+    }
+
+    /* package */ ParseQuery.State<T> getQueryState() {
+        return state;
+    }
+
+    /**
+     * @param codec The codec of the client, which always passes the same one.
+     * @return The query as encoded by the codec. It is only encoded the first time it is sent, as the
+     * state of the query never changes.
+     */
+    /* package */ String getEncodedQuery(LiveQueryCodec codec) throws JSONException {
+        String encoded = encodedQuery;
+        if (encoded == null) {
+            encoded = codec.encodeQuery(state);
+            encodedQuery = encoded;
+        }
+        return encoded;
+    }
+
+    /* package */ String getKey() {
+        return key;
+    }
+
+    /* package */ List<Subscription<T>> getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Adds a subscription to those events are delivered to. Only called on the dispatch stripe of the
+     * request id, unless the server has not been told to subscribe yet.
+     */
+    /* package */ void add(Subscription<T> subscription) {
+        subscriptions.add(subscription);
+    }
+
+    /* package */ void remove(Subscription<T> subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * @return The number of subscriptions that belong to this one, counting those that are still
+     * waiting to be added.
+     */
+    /* package */ int getMemberCount() {
+        return memberCount;
+    }
+
+    /* package */ void addMember() {
+        memberCount++;
+    }
+
+    /* package */ void removeMember() {
+        memberCount--;
+    }
+
+    /* package */ boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /* package */ void setSubscribed(boolean subscribed) {
+        this.subscribed = subscribed;
+    }
+
+    /* package */ boolean isUnsubscribing() {
+        return unsubscribing;
+    }
+
+    /* package */ void setUnsubscribing() {
+        this.unsubscribing = true;
+    }
+
+    /* package */ void didReceive(LiveQueryEvent<T> event) {
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.didReceive(event, subscription.getQuery());
+        }
+    }
+
+    /* package */ void didEncounter(LiveQueryException error) {
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.didEncounter(error, subscription.getQuery());
+        }
+    }
+
+    /* package */ void didSubscribe() {
+        subscribed = true;
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.didSubscribe(subscription.getQuery());
+        }
+    }
+
+    /* package */ void didUnsubscribe() {
+        subscribed = false;
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.didUnsubscribe(subscription.getQuery());
+        }
+    }
+
+    /**
+     * Computes a key that is equal for queries the live query server treats the same: same class,
+     * same constraints and same selected keys, regardless of the order they were added in.
+     *
+     * @param state The query.
+     * @return The canonical key of the query.
+     */
+    /* package */ static String canonicalKey(ParseQuery.State<?> state) throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("className", state.className());
+        jsonObject.put("where", PointerEncoder.get().encode(state.constraints()));
+        Set<String> selectedKeys = state.selectedKeys();
+        if (selectedKeys != null) {
+            List<String> keys = new ArrayList<>(selectedKeys);
+            Collections.sort(keys);
+            jsonObject.put("keys", new JSONArray(keys));
+        }
+
+        StringBuilder builder = new StringBuilder();
+        appendCanonical(builder, jsonObject);
+        return builder.toString();
+    }
+
+    private static void appendCanonical(StringBuilder builder, Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) value;
+            List<String> names = new ArrayList<>();
+            Iterator<String> iterator = jsonObject.keys();
+            while (iterator.hasNext()) {
+                names.add(iterator.next());
+            }
+            Collections.sort(names);
+
+            builder.append('{');
+            for (int i = 0; i < names.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(JSONObject.quote(names.get(i))).append(':');
+                appendCanonical(builder, jsonObject.get(names.get(i)));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < jsonArray.length(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendCanonical(builder, jsonArray.get(i));
+            }
+            builder.append(']');
+        } else if (value instanceof String) {
+            builder.append(JSONObject.quote((String) value));
+        } else {
+            builder.append(value);
+        }
+    }
+}
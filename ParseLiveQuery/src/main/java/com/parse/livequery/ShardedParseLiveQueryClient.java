@@ -0,0 +1,252 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A client that spreads its subscriptions over several {@link ParseLiveQueryClientImpl}s, each with
+ * its own socket and reader thread.
+ * <p>
+ * Shard i hands out the request ids {@code i + 1, i + 1 + n, i + 1 + 2n, ...}, so a subscription's
+ * shard follows from its request id and unsubscribes don't depend on the query being unchanged.
+ * A shard connects once it has a subscription, or when the client is asked to connect; the client
+ * is connected when all shards that were asked to connect are. All shards create their sockets with
+ * the same factory, so by default they share one {@link okhttp3.OkHttpClient}.
+ */
+class ShardedParseLiveQueryClient implements ParseLiveQueryClient, ParseLiveQueryClientBatch, ParseLiveQueryClientStats {
+
+    private final List<ParseLiveQueryClientImpl> shards;
+    private final ShardBy shardBy;
+    // Iterated without locking while listeners are registered from other threads
+    private final List<ParseLiveQueryClientCallbacks> mCallbacks = new CopyOnWriteArrayList<>();
+    // The shards that are connected; guarded by itself, as are the two below
+    private final Set<ParseLiveQueryClient> connectedShards = new HashSet<>();
+    // The shards that were asked to connect
+    private final Set<ParseLiveQueryClient> activeShards = new HashSet<>();
+    private boolean reportedConnected = false;
+    private volatile boolean userInitiatedDisconnect = false;
+
+    /* package */ ShardedParseLiveQueryClient(Configuration configuration) {
+        this.shardBy = configuration.shardBy;
+        int shardCount = configuration.shardCount;
+        shards = new ArrayList<>(shardCount);
+        ParseLiveQueryClientCallbacks aggregator = getShardCallbacks();
+        // Shared, so subscriptions on different shards share instances too
+        ObjectIdentityMap identityMap = configuration.identityMapSize > 0
+                ? new ObjectIdentityMap(configuration.identityMapSize) : null;
+        // Shared, so the sockets share one connection pool and dispatcher
+        WebSocketClientFactory webSocketClientFactory = ParseLiveQueryClientImpl.getWebSocketClientFactory(configuration);
+        for (int i = 0; i < shardCount; i++) {
+            ParseLiveQueryClientImpl shard = new ParseLiveQueryClientImpl(configuration, i + 1, shardCount, identityMap,
+                    webSocketClientFactory);
+            shard.registerListener(aggregator);
+            shards.add(shard);
+        }
+    }
+
+    @Override
+    public <T extends ParseObject> SubscriptionHandling<T> subscribe(ParseQuery<T> query) {
+        ParseLiveQueryClientImpl shard = shardForQuery(query);
+        if (!userInitiatedDisconnect) {
+            activate(Collections.singletonList(shard));
+        }
+        // Which connects the shard if needed; the others are left alone
+        return shard.subscribe(query);
+    }
+
+    @Override
+    public <T extends ParseObject> void unsubscribe(ParseQuery<T> query) {
+        // Subscriptions are found by query, so a shard without any is cheap to ask
+        for (ParseLiveQueryClientImpl shard : shards) {
+            shard.unsubscribe(query);
+        }
+    }
+
+    @Override
+    public <T extends ParseObject> void unsubscribe(ParseQuery<T> query, SubscriptionHandling<T> subscriptionHandling) {
+        if (subscriptionHandling != null) {
+            shardForRequestId(subscriptionHandling.getRequestId()).unsubscribe(query, subscriptionHandling);
+        }
+    }
+
+    @Override
+    public void unsubscribeAll(Collection<? extends SubscriptionHandling<? extends ParseObject>> subscriptionHandlings) {
+        if (subscriptionHandlings == null) {
+            return;
+        }
+        List<List<SubscriptionHandling<? extends ParseObject>>> byShard = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            byShard.add(new ArrayList<SubscriptionHandling<? extends ParseObject>>());
+        }
+        for (SubscriptionHandling<? extends ParseObject> subscriptionHandling : subscriptionHandlings) {
+            if (subscriptionHandling != null) {
+                byShard.get(shardIndex(subscriptionHandling.getRequestId())).add(subscriptionHandling);
+            }
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            if (!byShard.get(i).isEmpty()) {
+                shards.get(i).unsubscribeAll(byShard.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void connectIfNeeded() {
+        userInitiatedDisconnect = false;
+        activate(shards);
+        for (ParseLiveQueryClientImpl shard : shards) {
+            shard.connectIfNeeded();
+        }
+    }
+
+    @Override
+    public void reconnect() {
+        userInitiatedDisconnect = false;
+        activate(shards);
+        for (ParseLiveQueryClientImpl shard : shards) {
+            shard.reconnect();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        userInitiatedDisconnect = true;
+        for (ParseLiveQueryClientImpl shard : shards) {
+            shard.disconnect();
+        }
+    }
+
+    /**
+     * @return The longest time any shard took to replay its subscriptions, or -1 if a shard has
+     * not finished yet.
+     */
+    @Override
+    public long getLastResubscribeDurationMillis() {
+        long longest = 0;
+        for (ParseLiveQueryClientImpl shard : shards) {
+            long duration = shard.getLastResubscribeDurationMillis();
+            if (duration < 0) {
+                return -1;
+            }
+            longest = Math.max(longest, duration);
+        }
+        return longest;
+    }
+
+    /**
+     * @return The mean round trip time of the shards that have one, or -1 if none has.
+     */
+    @Override
+    public long getRoundTripTimeMillis() {
+        long total = 0;
+        int count = 0;
+        for (ParseLiveQueryClientImpl shard : shards) {
+            long roundTripTime = shard.getRoundTripTimeMillis();
+            if (roundTripTime >= 0) {
+                total += roundTripTime;
+                count++;
+            }
+        }
+        return count == 0 ? -1 : total / count;
+    }
+
+    @Override
+    public void registerListener(ParseLiveQueryClientCallbacks listener) {
+        mCallbacks.add(listener);
+    }
+
+    @Override
+    public void unregisterListener(ParseLiveQueryClientCallbacks listener) {
+        mCallbacks.remove(listener);
+    }
+
+    // Private methods
+
+    private void activate(Collection<? extends ParseLiveQueryClient> shards) {
+        synchronized (connectedShards) {
+            activeShards.addAll(shards);
+        }
+    }
+
+    private ParseLiveQueryClientImpl shardForQuery(ParseQuery<?> query) {
+        ParseQuery.State<?> state = query.getBuilder().build();
+        String key = state.className();
+        if (shardBy == ShardBy.QUERY) {
+            try {
+                key = ServerSubscription.canonicalKey(state);
+            } catch (JSONException | RuntimeException e) {
+                // The query will fail to encode when it is sent too, and report it then
+            }
+        }
+        return shards.get((key.hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    private ParseLiveQueryClientImpl shardForRequestId(int requestId) {
+        return shards.get(shardIndex(requestId));
+    }
+
+    private int shardIndex(int requestId) {
+        return ((requestId - 1) % shards.size() + shards.size()) % shards.size();
+    }
+
+    private ParseLiveQueryClientCallbacks getShardCallbacks() {
+        return new ParseLiveQueryClientCallbacks() {
+            @Override
+            public void onLiveQueryClientConnected(ParseLiveQueryClient client) {
+                boolean allConnected;
+                synchronized (connectedShards) {
+                    connectedShards.add(client);
+                    allConnected = !reportedConnected && connectedShards.containsAll(activeShards);
+                    if (allConnected) {
+                        reportedConnected = true;
+                    }
+                }
+                if (allConnected) {
+                    for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
+                        callback.onLiveQueryClientConnected(ShardedParseLiveQueryClient.this);
+                    }
+                }
+            }
+
+            @Override
+            public void onLiveQueryClientDisconnected(ParseLiveQueryClient client, boolean userInitiated) {
+                boolean lost;
+                synchronized (connectedShards) {
+                    lost = connectedShards.remove(client) && reportedConnected;
+                    if (lost) {
+                        reportedConnected = false;
+                    }
+                }
+                if (lost) {
+                    for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
+                        callback.onLiveQueryClientDisconnected(ShardedParseLiveQueryClient.this, userInitiated);
+                    }
+                }
+            }
+
+            @Override
+            public void onLiveQueryError(ParseLiveQueryClient client, LiveQueryException reason) {
+                for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
+                    callback.onLiveQueryError(ShardedParseLiveQueryClient.this, reason);
+                }
+            }
+
+            @Override
+            public void onSocketError(ParseLiveQueryClient client, Throwable reason) {
+                for (ParseLiveQueryClientCallbacks callback : mCallbacks) {
+                    callback.onSocketError(ShardedParseLiveQueryClient.this, reason);
+                }
+            }
+        };
+    }
+}
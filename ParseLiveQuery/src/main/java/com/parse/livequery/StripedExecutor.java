@@ -0,0 +1,92 @@
+package com.parse.livequery;
+
+import com.parse.PLog;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on a backing executor so that tasks submitted for the same key run one at a time and in
+ * submission order, while tasks for keys on different stripes may run in parallel.
+ * <p>
+ * At most one task per stripe is handed to the backing executor at a time, so the number of stripes
+ * bounds how many threads are used concurrently.
+ */
+class StripedExecutor {
+
+    private static final String LOG_TAG = "StripedExecutor";
+
+    private final Stripe[] stripes;
+
+    /* package */ StripedExecutor(Executor executor) {
+        this(executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /* package */ StripedExecutor(Executor executor, int stripeCount) {
+        stripes = new Stripe[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(executor);
+        }
+    }
+
+    /**
+     * @param key The key tasks are ordered by, e.g. a request id.
+     * @return An executor that runs its tasks in order with every other task for the same key.
+     */
+    /* package */ Executor forKey(int key) {
+        return stripes[(key & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static class Stripe implements Executor {
+
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running = false;
+
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Runnable task;
+                    synchronized (Stripe.this) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            running = false;
+                            return;
+                        }
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        PLog.e(LOG_TAG, "Error running task", e);
+                    }
+                }
+            }
+        };
+
+        private Stripe(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                tasks.add(task);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            try {
+                executor.execute(drain);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    tasks.remove(task);
+                    running = false;
+                }
+                throw e;
+            }
+        }
+    }
+}
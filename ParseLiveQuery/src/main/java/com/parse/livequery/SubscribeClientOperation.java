@@ -1,43 +1,73 @@
 package com.parse.livequery;
 
+import android.util.JsonWriter;
+
 import com.parse.ParseObject;
 import com.parse.ParseQuery;
 import com.parse.PointerEncoder;
 import com.parse.livequery.ClientOperation;
 
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.io.IOException;
 
 class SubscribeClientOperation<T extends ParseObject> extends ClientOperation {
 
     private final int requestId;
     private final ParseQuery.State<T> state;
+    private final String encodedQuery;
     private final String sessionToken;
 
     /* package */ SubscribeClientOperation(int requestId, ParseQuery.State<T> state, String sessionToken) {
+        this(requestId, state, null, sessionToken);
+    }
+
+    /**
+     * @param encodedQuery The query as encoded by {@link LiveQueryCodec#encodeQuery}, or null to
+     *                     encode it when the operation is written.
+     */
+    /* package */ SubscribeClientOperation(int requestId, ParseQuery.State<T> state, String encodedQuery, String sessionToken) {
         this.requestId = requestId;
         this.state = state;
+        this.encodedQuery = encodedQuery;
         this.sessionToken = sessionToken;
     }
 
+    /* package */ int getRequestId() {
+        return requestId;
+    }
+
+    /* package */ String getEncodedQuery() {
+        return encodedQuery;
+    }
+
+    /* package */ String getSessionToken() {
+        return sessionToken;
+    }
+
     @Override
-    /* package */ JSONObject getJSONObjectRepresentation() throws JSONException {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("op", "subscribe");
-        jsonObject.put("requestId", requestId);
-        jsonObject.put("sessionToken", sessionToken);
+    /* package */ void writeTo(JsonWriter writer) throws IOException, JSONException {
+        writer.beginObject();
+        writer.name("op").value("subscribe");
+        writer.name("requestId").value(requestId);
+        if (sessionToken != null) {
+            writer.name("sessionToken").value(sessionToken);
+        }
+        writer.name("query");
+        writeQuery(writer, state);
+        writer.endObject();
+    }
 
-        JSONObject queryJsonObject = new JSONObject();
-        queryJsonObject.put("className", state.className());
+    /* package */ static void writeQuery(JsonWriter writer, ParseQuery.State<?> state) throws IOException, JSONException {
+        writer.beginObject();
+        writer.name("className").value(state.className());
 
         // TODO: add support for fields
         // https://github.com/ParsePlatform/parse-server/issues/3671
-        
-        PointerEncoder pointerEncoder = PointerEncoder.get();
-        queryJsonObject.put("where", pointerEncoder.encode(state.constraints()));
-
-        jsonObject.put("query", queryJsonObject);
 
-        return jsonObject;
+        PointerEncoder pointerEncoder = PointerEncoder.get();
+        writer.name("where");
+        JsonLiveQueryCodec.writeValue(writer, pointerEncoder.encode(state.constraints()));
+        writer.endObject();
     }
 }
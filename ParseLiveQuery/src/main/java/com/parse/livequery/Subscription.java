@@ -3,24 +3,31 @@ package com.parse.livequery;
 import com.parse.ParseObject;
 import com.parse.ParseQuery;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-class Subscription<T extends ParseObject> implements SubscriptionHandling<T> {
+class Subscription<T extends ParseObject> implements LiveQueryEventHandling<T> {
 
-    private final List<HandleEventsCallback<T>> handleEventsCallbacks = new ArrayList<>();
-    private final List<HandleErrorCallback<T>> handleErrorCallbacks = new ArrayList<>();
-    private final List<HandleSubscribeCallback<T>> handleSubscribeCallbacks = new ArrayList<>();
-    private final List<HandleUnsubscribeCallback<T>> handleUnsubscribeCallbacks = new ArrayList<>();
+    // Callbacks are registered from any thread while events are dispatched on executor threads.
+    // Registration is rare and dispatch frequent, so each dispatch iterates a snapshot without locking.
+    private final List<HandleEventsCallback<T>> handleEventsCallbacks = new CopyOnWriteArrayList<>();
+    private final List<HandleLiveQueryEventsCallback<T>> handleLiveQueryEventsCallbacks = new CopyOnWriteArrayList<>();
+    private final List<HandleErrorCallback<T>> handleErrorCallbacks = new CopyOnWriteArrayList<>();
+    private final List<HandleSubscribeCallback<T>> handleSubscribeCallbacks = new CopyOnWriteArrayList<>();
+    private final List<HandleUnsubscribeCallback<T>> handleUnsubscribeCallbacks = new CopyOnWriteArrayList<>();
 
     private final int requestId;
     private final ParseQuery<T> query;
     private final ParseQuery.State<T> state;
 
     /* package */ Subscription(int requestId, ParseQuery<T> query) {
+        this(requestId, query, query.getBuilder().build());
+    }
+
+    /* package */ Subscription(int requestId, ParseQuery<T> query, ParseQuery.State<T> state) {
         this.requestId = requestId;
         this.query = query;
-        this.state = query.getBuilder().build();
+        this.state = state;
     }
 
     @Override
@@ -41,6 +48,17 @@ class Subscription<T extends ParseObject> implements SubscriptionHandling<T> {
         });
     }
 
+    @Override
+    public Subscription<T> handleLiveQueryEvents(HandleLiveQueryEventsCallback<T> callback) {
+        handleLiveQueryEventsCallbacks.add(callback);
+        return this;
+    }
+
+    @Override
+    public Subscription<T> handleEventBatchesOnMainThread(HandleEventBatchCallback<T> callback) {
+        return handleLiveQueryEvents(new MainThreadEventBatcher<>(callback));
+    }
+
     @Override
     public Subscription<T> handleError(HandleErrorCallback<T> callback) {
         handleErrorCallbacks.add(callback);
@@ -78,9 +96,15 @@ class Subscription<T extends ParseObject> implements SubscriptionHandling<T> {
      * @param event The event that has been received from the server.
      * @param query The query that the event occurred on.
      */
-    /* package */ void didReceive(Event event, ParseQuery<T> query, T object) {
-        for (HandleEventsCallback<T> handleEventsCallback : handleEventsCallbacks) {
-            handleEventsCallback.onEvents(query, event, object);
+    /* package */ void didReceive(LiveQueryEvent<T> event, ParseQuery<T> query) {
+        for (HandleLiveQueryEventsCallback<T> handleLiveQueryEventsCallback : handleLiveQueryEventsCallbacks) {
+            handleLiveQueryEventsCallback.onEvents(query, event);
+        }
+        if (!handleEventsCallbacks.isEmpty()) {
+            T object = event.getObject();
+            for (HandleEventsCallback<T> handleEventsCallback : handleEventsCallbacks) {
+                handleEventsCallback.onEvents(query, event.getEvent(), object);
+            }
         }
     }
 
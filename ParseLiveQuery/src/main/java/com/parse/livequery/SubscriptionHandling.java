@@ -23,7 +23,7 @@ public interface SubscriptionHandling<T extends ParseObject> {
     SubscriptionHandling<T> handleEvent(Subscription.Event event, Subscription.HandleEventCallback<T> callback);
 
     /**
-     * Register a callback for when an event occurs.
+     * Register a callback for when an error occurs.
      *
      * @param callback The callback to register.
      * @return The same SubscriptionHandling, for easy chaining.
@@ -1,7 +1,8 @@
 package com.parse.livequery;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import android.util.JsonWriter;
+
+import java.io.IOException;
 
 class UnsubscribeClientOperation extends ClientOperation {
 
@@ -12,10 +13,10 @@ class UnsubscribeClientOperation extends ClientOperation {
     }
 
     @Override
-    JSONObject getJSONObjectRepresentation() throws JSONException {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("op", "unsubscribe");
-        jsonObject.put("requestId", requestId);
-        return jsonObject;
+    void writeTo(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("op").value("unsubscribe");
+        writer.name("requestId").value(requestId);
+        writer.endObject();
     }
 }
@@ -0,0 +1,170 @@
+package com.parse;
+
+import android.util.Log;
+
+import com.parse.livequery.BuildConfig;
+import com.parse.livequery.FakeLiveQueryServer;
+import com.parse.livequery.InMemoryLiveQueryMetrics;
+import com.parse.livequery.LiveQueryEvent;
+import com.parse.livequery.LiveQueryEventHandling;
+import com.parse.livequery.OkHttp3SocketClientFactory;
+import com.parse.livequery.ParseLiveQueryClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs a client against a {@link FakeLiveQueryServer} for a long time, checks that events are
+ * delivered without loss, and logs throughput, latency and heap growth. Skipped unless a duration
+ * is given, e.g.
+ * {@code ./gradlew :ParseLiveQuery:testDebugUnitTest --tests com.parse.LiveQueryLoadTest -Plivequery.loadTest.seconds=600 -Probolectric.logging=stdout}.
+ * The rate, shared by all subscriptions, the event size and the disconnect probability can be given
+ * the same way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class LiveQueryLoadTest {
+
+    private static final String LOG_TAG = "LiveQueryLoadTest";
+    private static final String PROPERTY_PREFIX = "livequery.loadTest.";
+
+    private static final int SUBSCRIPTIONS = 10;
+
+    private FakeLiveQueryServer server;
+    private ParseLiveQueryClient parseLiveQueryClient;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(System.getProperty(PROPERTY_PREFIX + "seconds") != null);
+
+        Parse.Configuration configuration = new Parse.Configuration.Builder(null)
+                .applicationId("1234")
+                .build();
+        ParsePlugins.initialize(null, configuration);
+
+        server = new FakeLiveQueryServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (parseLiveQueryClient != null) {
+            parseLiveQueryClient.disconnect();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+        ParseCorePlugins.getInstance().reset();
+        ParsePlugins.reset();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        long seconds = Long.getLong(PROPERTY_PREFIX + "seconds");
+        int eventsPerSecond = Integer.getInteger(PROPERTY_PREFIX + "eventsPerSecond", 1000);
+        int fieldCount = Integer.getInteger(PROPERTY_PREFIX + "fieldCount", 10);
+        double disconnectsPerSecond = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "disconnectsPerSecond", "0.01"));
+
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        // Reuses the delivery latency histogram for the latency from the server to the callback
+        final InMemoryLiveQueryMetrics endToEnd = new InMemoryLiveQueryMetrics();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(server.getUri())
+                .webSocketClientFactory(new OkHttp3SocketClientFactory(new OkHttpClient(), metrics))
+                .automaticReconnect(100, 5000, TimeUnit.MILLISECONDS, Integer.MAX_VALUE)
+                .inboundQueue(1000, ParseLiveQueryClient.OverflowPolicy.BLOCK)
+                .metrics(metrics)
+                .build());
+
+        for (int i = 0; i < SUBSCRIPTIONS; i++) {
+            ((LiveQueryEventHandling<ParseObject>) parseLiveQueryClient.subscribe(ParseQuery.getQuery("Load" + i)))
+                    .handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<ParseObject>() {
+                        @Override
+                        public void onEvents(ParseQuery<ParseObject> query, LiveQueryEvent<ParseObject> event) {
+                            long sentAtNanos = event.getObject().getLong(FakeLiveQueryServer.SENT_AT_NANOS);
+                            endToEnd.onEventDelivered(0, System.nanoTime() - sentAtNanos);
+                        }
+                    });
+        }
+        waitForSubscriptions();
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        server.emitEvents("update", eventsPerSecond, fieldCount);
+        server.disconnectRandomly(disconnectsPerSecond);
+        long maxHeap = heapBefore;
+        for (long second = 0; second < seconds; second++) {
+            Thread.sleep(1000);
+            maxHeap = Math.max(maxHeap, usedHeap());
+        }
+        server.disconnectRandomly(0);
+        server.stopEmitting();
+        long elapsedNanos = System.nanoTime() - start;
+        // Let the events in flight drain before measuring the heap again
+        Thread.sleep(1000);
+        long heapAfter = usedHeap();
+
+        double elapsedSeconds = elapsedNanos / 1e9;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%ds, %d events/s of %d fields to %d subscriptions, %.3f disconnects/s%n"
+                        + "  sent %d events (%.0f/s), delivered %d (%.0f/s), dropped %d, decode failures %d%n"
+                        + "  received %d messages, %d bytes (%.0f bytes/s)%n"
+                        + "  connects %d, reconnect attempts %d, server disconnects %d%n"
+                        + "  inbound queue depth max %d%n"
+                        + "  delivery latency p50 %dus, p99 %dus, p99.9 %dus, max %dus%n"
+                        + "  end-to-end latency p50 %dus, p99 %dus, p99.9 %dus, max %dus%n"
+                        + "  heap before %dKB, max %dKB, after %dKB, growth %dKB",
+                seconds, eventsPerSecond, fieldCount, SUBSCRIPTIONS, disconnectsPerSecond,
+                server.getEventsSent(), server.getEventsSent() / elapsedSeconds,
+                metrics.getEventsDelivered(), metrics.getEventsDelivered() / elapsedSeconds,
+                metrics.getEventsDropped(), metrics.getDecodeFailures(),
+                metrics.getMessagesReceived(), metrics.getBytesReceived(), metrics.getBytesReceived() / elapsedSeconds,
+                metrics.getConnects(), metrics.getReconnectAttempts(), server.getDisconnects(),
+                metrics.getMaxInboundQueueDepth(),
+                metrics.getDeliveryLatency(50, TimeUnit.MICROSECONDS),
+                metrics.getDeliveryLatency(99, TimeUnit.MICROSECONDS),
+                metrics.getDeliveryLatency(99.9, TimeUnit.MICROSECONDS),
+                metrics.getMaxDeliveryLatency(TimeUnit.MICROSECONDS),
+                endToEnd.getDeliveryLatency(50, TimeUnit.MICROSECONDS),
+                endToEnd.getDeliveryLatency(99, TimeUnit.MICROSECONDS),
+                endToEnd.getDeliveryLatency(99.9, TimeUnit.MICROSECONDS),
+                endToEnd.getMaxDeliveryLatency(TimeUnit.MICROSECONDS),
+                heapBefore / 1024, maxHeap / 1024, heapAfter / 1024, (heapAfter - heapBefore) / 1024));
+
+        assertEquals(0, metrics.getDecodeFailures());
+        // The inbound queue is configured to block rather than drop events
+        assertEquals(0, metrics.getEventsDropped());
+        assertTrue(metrics.getEventsDelivered() > 0);
+        // Only events in flight when a connection is dropped may be lost
+        assertTrue("Delivered " + metrics.getEventsDelivered() + " of " + server.getEventsSent() + " events",
+                metrics.getEventsDelivered() >= server.getEventsSent() * 0.9);
+    }
+
+    private void waitForSubscriptions() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getSubscriptionCount() < SUBSCRIPTIONS) {
+            assertTrue("Timed out waiting for subscriptions", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(100);
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
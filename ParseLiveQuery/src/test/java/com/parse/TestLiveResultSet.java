@@ -0,0 +1,183 @@
+package com.parse;
+
+import com.parse.livequery.BuildConfig;
+import com.parse.livequery.LiveResultSet;
+import com.parse.livequery.SubscriptionHandling;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.Transcript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestLiveResultSet {
+
+    private final ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    private SubscriptionHandling.HandleEventsCallback<ParseObject> events;
+    private final Transcript transcript = new Transcript();
+
+    @Before
+    public void setUp() throws Exception {
+        Parse.Configuration configuration = new Parse.Configuration.Builder(null)
+                .applicationId("1234")
+                .build();
+        ParsePlugins.initialize(null, configuration);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ParseCorePlugins.getInstance().reset();
+        ParsePlugins.reset();
+    }
+
+    @Test
+    public void testArrivalOrder() {
+        LiveResultSet<ParseObject> resultSet = createResultSet(null);
+
+        events.onEvents(query, SubscriptionHandling.Event.CREATE, object("a", 3));
+        events.onEvents(query, SubscriptionHandling.Event.ENTER, object("b", 1));
+        events.onEvents(query, SubscriptionHandling.Event.UPDATE, object("a", 5));
+        events.onEvents(query, SubscriptionHandling.Event.LEAVE, object("a", 5));
+        events.onEvents(query, SubscriptionHandling.Event.DELETE, object("c", 0));
+
+        transcript.assertEventsSoFar(
+                "onInserted 0 a",
+                "onInserted 1 b",
+                "onChanged 0 a",
+                "onRemoved 0 a");
+        assertEquals(1, resultSet.size());
+        assertEquals("b", resultSet.get(0).getObjectId());
+        assertFalse(resultSet.contains("a"));
+        assertNull(resultSet.get("a"));
+    }
+
+    @Test
+    public void testSortedUpdatesMoveSingleObject() {
+        LiveResultSet<ParseObject> resultSet = createResultSet(new Comparator<ParseObject>() {
+            @Override
+            public int compare(ParseObject lhs, ParseObject rhs) {
+                return lhs.getInt("rank") - rhs.getInt("rank");
+            }
+        });
+
+        events.onEvents(query, SubscriptionHandling.Event.CREATE, object("a", 3));
+        events.onEvents(query, SubscriptionHandling.Event.CREATE, object("b", 1));
+        events.onEvents(query, SubscriptionHandling.Event.CREATE, object("c", 2));
+        // Still between b and c, so changed in place
+        events.onEvents(query, SubscriptionHandling.Event.UPDATE, object("c", 2));
+        events.onEvents(query, SubscriptionHandling.Event.UPDATE, object("a", 0));
+
+        transcript.assertEventsSoFar(
+                "onInserted 0 a",
+                "onInserted 0 b",
+                "onInserted 1 c",
+                "onChanged 1 c",
+                "onMoved 2 0 a",
+                "onChanged 0 a");
+        assertEquals(Arrays.asList("a", "b", "c"), objectIds(resultSet));
+        assertEquals(0, resultSet.get("a").getInt("rank"));
+    }
+
+    @Test
+    public void testResetReportsDifferences() {
+        LiveResultSet<ParseObject> resultSet = createResultSet(null);
+        resultSet.reset(Arrays.asList(object("a", 1), object("b", 2)));
+        resultSet.reset(Arrays.asList(object("b", 3), object("c", 4)));
+
+        transcript.assertEventsSoFar(
+                "onInserted 0 a",
+                "onInserted 1 b",
+                "onRemoved 0 a",
+                "onChanged 0 b",
+                "onInserted 1 c");
+        assertEquals(Arrays.asList("b", "c"), objectIds(resultSet));
+    }
+
+    @Test
+    public void testResetSkipsObjectsNotUpdatedSince() throws Exception {
+        LiveResultSet<ParseObject> resultSet = createResultSet(null);
+        resultSet.reset(Arrays.asList(object("a", "2020-01-01T00:00:00.000Z"), object("b", "2020-01-01T00:00:00.000Z")));
+        resultSet.reset(Arrays.asList(object("a", "2020-01-01T00:00:00.000Z"), object("b", "2020-01-02T00:00:00.000Z")));
+
+        transcript.assertEventsSoFar(
+                "onInserted 0 a",
+                "onInserted 1 b",
+                "onChanged 1 b");
+    }
+
+    private LiveResultSet<ParseObject> createResultSet(Comparator<ParseObject> order) {
+        SubscriptionHandling<ParseObject> subscriptionHandling = mock(SubscriptionHandling.class);
+        when(subscriptionHandling.handleEvents(any(SubscriptionHandling.HandleEventsCallback.class))).thenReturn(subscriptionHandling);
+        LiveResultSet<ParseObject> resultSet = new LiveResultSet<>(subscriptionHandling, order);
+
+        ArgumentCaptor<SubscriptionHandling.HandleEventsCallback> captor = ArgumentCaptor.forClass(SubscriptionHandling.HandleEventsCallback.class);
+        verify(subscriptionHandling).handleEvents(captor.capture());
+        //noinspection unchecked
+        events = captor.getValue();
+
+        resultSet.addListener(new LiveResultSet.Listener<ParseObject>() {
+            @Override
+            public void onInserted(int position, ParseObject object) {
+                transcript.add("onInserted " + position + " " + object.getObjectId());
+            }
+
+            @Override
+            public void onRemoved(int position, ParseObject object) {
+                transcript.add("onRemoved " + position + " " + object.getObjectId());
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition, ParseObject object) {
+                transcript.add("onMoved " + fromPosition + " " + toPosition + " " + object.getObjectId());
+            }
+
+            @Override
+            public void onChanged(int position, ParseObject object) {
+                transcript.add("onChanged " + position + " " + object.getObjectId());
+            }
+        });
+        return resultSet;
+    }
+
+    private static ParseObject object(String objectId, int rank) {
+        ParseObject object = new ParseObject("Test");
+        object.setObjectId(objectId);
+        object.put("rank", rank);
+        return object;
+    }
+
+    private static ParseObject object(String objectId, String updatedAt) throws JSONException {
+        return ParseObject.fromJSON(new JSONObject()
+                .put("className", "Test")
+                .put("objectId", objectId)
+                .put("updatedAt", updatedAt), "Test", ParseDecoder.get());
+    }
+
+    private static List<String> objectIds(LiveResultSet<ParseObject> resultSet) {
+        List<String> objectIds = new ArrayList<>();
+        for (ParseObject object : resultSet.snapshot()) {
+            objectIds.add(object.getObjectId());
+        }
+        return objectIds;
+    }
+}
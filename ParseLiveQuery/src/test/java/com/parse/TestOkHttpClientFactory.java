@@ -9,14 +9,23 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.net.URI;
 
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
 
 import static com.parse.livequery.WebSocketClient.State.NONE;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class TestOkHttpClientFactory {
@@ -49,4 +58,22 @@ public class TestOkHttpClientFactory {
         Assert.assertEquals(NONE, webSocketClient.getState());
     }
 
+    @Test
+    public void testMessageBytesCounted() {
+        WebSocket webSocket = mock(WebSocket.class);
+        when(webSocket.send(anyString())).thenReturn(true);
+        when(okHttpClientMock.newWebSocket(any(Request.class), any(WebSocketListener.class))).thenReturn(webSocket);
+
+        webSocketClient.open();
+        ArgumentCaptor<WebSocketListener> listenerCaptor = ArgumentCaptor.forClass(WebSocketListener.class);
+        verify(okHttpClientMock).newWebSocket(any(Request.class), listenerCaptor.capture());
+        WebSocketListener listener = listenerCaptor.getValue();
+        listener.onOpen(webSocket, null);
+
+        webSocketClient.send("caf\u00e9");
+        listener.onMessage(webSocket, "{}");
+        Assert.assertEquals(5, okHttp3SocketClientFactory.getBytesSent());
+        Assert.assertEquals(2, okHttp3SocketClientFactory.getBytesReceived());
+    }
+
 }
@@ -1,9 +1,14 @@
 package com.parse;
 
 import com.parse.livequery.BuildConfig;
+import com.parse.livequery.InMemoryLiveQueryMetrics;
+import com.parse.livequery.LiveQueryEvent;
+import com.parse.livequery.LiveQueryEventHandling;
 import com.parse.livequery.LiveQueryException;
 import com.parse.livequery.ParseLiveQueryClient;
+import com.parse.livequery.ParseLiveQueryClientBatch;
 import com.parse.livequery.ParseLiveQueryClientCallbacks;
+import com.parse.livequery.ParseLiveQueryClientStats;
 import com.parse.livequery.SubscriptionHandling;
 import com.parse.livequery.WebSocketClient;
 import com.parse.livequery.WebSocketClientFactory;
@@ -19,15 +24,27 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 import org.robolectric.util.Transcript;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.parse.boltsinternal.Task;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.and;
 import static org.mockito.AdditionalMatchers.not;
@@ -38,6 +55,8 @@ import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -46,8 +65,9 @@ import static org.mockito.Mockito.when;
 @Config(constants = BuildConfig.class, sdk = 21)
 public class TestParseLiveQueryClient {
 
-    private WebSocketClient webSocketClient;
-    private WebSocketClient.WebSocketClientCallback webSocketClientCallback;
+    private volatile WebSocketClient webSocketClient;
+    private volatile WebSocketClient.WebSocketClientCallback webSocketClientCallback;
+    private volatile URI webSocketUri;
     private ParseLiveQueryClient parseLiveQueryClient;
 
     private ParseUser mockUser;
@@ -76,14 +96,7 @@ public class TestParseLiveQueryClient {
         });
         ParseCorePlugins.getInstance().registerCurrentUserController(currentUserController);
 
-        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new URI(""), new WebSocketClientFactory() {
-            @Override
-            public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
-                TestParseLiveQueryClient.this.webSocketClientCallback = webSocketClientCallback;
-                webSocketClient = mock(WebSocketClient.class);
-                return webSocketClient;
-            }
-        }, new ImmediateExecutor());
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new URI(""), mockWebSocketClientFactory(), new ImmediateExecutor());
         reconnect();
     }
 
@@ -133,12 +146,13 @@ public class TestParseLiveQueryClient {
 
     @Test
     public void testUnsubscribeWhenSubscribedToCallback() throws Exception {
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
         ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
         SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
                 mock(SubscriptionHandling.HandleSubscribeCallback.class));
 
         parseLiveQueryClient.unsubscribe(parseQuery);
-        verify(webSocketClient, times(1)).send(any(String.class));
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"unsubscribe\""));
 
         SubscriptionHandling.HandleUnsubscribeCallback<ParseObject> unsubscribeMockCallback = mock(
                 SubscriptionHandling.HandleUnsubscribeCallback.class);
@@ -176,6 +190,27 @@ public class TestParseLiveQueryClient {
         assertNotNull(errorCaptor.getValue().getCause());
     }
 
+    @Test
+    public void testQueryEncodedOnceAcrossResubscribes() throws Exception {
+        ParseQuery.State state = mock(ParseQuery.State.class);
+        when(state.className()).thenReturn("Test");
+        when(state.constraints()).thenReturn(new ParseQuery.QueryConstraints());
+
+        ParseQuery.State.Builder builder = mock(ParseQuery.State.Builder.class);
+        when(builder.build()).thenReturn(state);
+        ParseQuery query = mock(ParseQuery.class);
+        when(query.getBuilder()).thenReturn(builder);
+
+        parseLiveQueryClient.subscribe(query);
+        webSocketClientCallback.onMessage(createConnectedMessage().toString());
+        verify(webSocketClient, times(1)).send(contains("\"query\":{\"className\":\"Test\",\"where\":{}}"));
+
+        parseLiveQueryClient.disconnect();
+        reconnect();
+        verify(webSocketClient, times(1)).send(contains("\"query\":{\"className\":\"Test\",\"where\":{}}"));
+        verify(state, times(1)).constraints();
+    }
+
     @Test
     public void testErrorWhenSubscribedToCallback() throws Exception {
         ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
@@ -347,8 +382,111 @@ public class TestParseLiveQueryClient {
         assertEquals(parseObject.getObjectId(), newParseObject.getObjectId());
     }
 
+    @Test
+    public void testUpdateEventWhenSubscribedToLiveQueryEventsCallback() throws Exception {
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+
+        LiveQueryEventHandling.HandleLiveQueryEventsCallback<ParseObject> eventsMockCallback = mock(LiveQueryEventHandling.HandleLiveQueryEventsCallback.class);
+        ((LiveQueryEventHandling<ParseObject>) subscriptionHandling).handleLiveQueryEvents(eventsMockCallback);
+
+        ParseObject parseObject = new ParseObject("Test");
+        parseObject.setObjectId("testId");
+
+        webSocketClientCallback.onMessage(createObjectUpdateMessage(subscriptionHandling.getRequestId(), parseObject).toString());
+
+        ArgumentCaptor<LiveQueryEvent> eventCaptor = ArgumentCaptor.forClass(LiveQueryEvent.class);
+        verify(eventsMockCallback, times(1)).onEvents(eq(parseQuery), eventCaptor.capture());
+
+        LiveQueryEvent<ParseObject> event = eventCaptor.getValue();
+        assertEquals(SubscriptionHandling.Event.UPDATE, event.getEvent());
+        assertEquals("testId", event.getObjectId());
+        assertEquals("Test", event.getClassName());
+
+        ParseObject newParseObject = event.getObject();
+        assertEquals(parseObject.getObjectId(), newParseObject.getObjectId());
+        assertSame(newParseObject, event.getObject());
+    }
+
+    @Test
+    public void testCreateEventWithObjectBeforeRequestId() throws Exception {
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+
+        SubscriptionHandling.HandleEventCallback<ParseObject> eventMockCallback = mock(SubscriptionHandling.HandleEventCallback.class);
+        subscriptionHandling.handleEvent(SubscriptionHandling.Event.CREATE, eventMockCallback);
+
+        ParseObject parseObject = new ParseObject("Test");
+        parseObject.setObjectId("testId");
+
+        JSONObject object = PointerEncoder.get().encodeRelatedObject(parseObject);
+        webSocketClientCallback.onMessage("{\"object\":" + object + ",\"op\":\"create\",\"requestId\":"
+                + subscriptionHandling.getRequestId() + "}");
+
+        validateSameObject(eventMockCallback, parseQuery, parseObject);
+    }
+
+    @Test
+    public void testEventForUnknownRequestIdIsIgnored() throws Exception {
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+
+        SubscriptionHandling.HandleEventsCallback<ParseObject> eventsMockCallback = mock(SubscriptionHandling.HandleEventsCallback.class);
+        subscriptionHandling.handleEvents(eventsMockCallback);
+
+        LoggingCallbacks callbacks = new LoggingCallbacks();
+        parseLiveQueryClient.registerListener(callbacks);
+
+        ParseObject parseObject = new ParseObject("Test");
+        parseObject.setObjectId("testId");
+
+        // The payload after the request id is never read, so a truncated frame is not an error
+        webSocketClientCallback.onMessage("{\"op\":\"update\",\"requestId\":"
+                + (subscriptionHandling.getRequestId() + 1) + ",\"object\":{\"objectId\":");
+        webSocketClientCallback.onMessage(createObjectUpdateMessage(subscriptionHandling.getRequestId() + 1, parseObject).toString());
+
+        verify(eventsMockCallback, never()).onEvents(any(ParseQuery.class), any(SubscriptionHandling.Event.class), any(ParseObject.class));
+        callbacks.transcript.assertNoEventsSoFar();
+    }
+
+    @Test
+    public void testMetricsReported() throws Exception {
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .metrics(metrics)
+                .build());
+        reconnect();
+        assertEquals(1, metrics.getConnects());
+
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        subscriptionHandling.handleEvent(SubscriptionHandling.Event.CREATE, mock(SubscriptionHandling.HandleEventCallback.class));
+
+        ParseObject parseObject = new ParseObject("Test");
+        parseObject.setObjectId("testId");
+        webSocketClientCallback.onMessage(createObjectCreateMessage(subscriptionHandling.getRequestId(), parseObject).toString());
+        webSocketClientCallback.onMessage("not json");
+
+        assertEquals(1, metrics.getEventsDelivered(subscriptionHandling.getRequestId()));
+        assertEquals(1, metrics.getDecodeFailures());
+        assertEquals(1, metrics.getMaxInboundQueueDepth());
+
+        parseLiveQueryClient.unsubscribe(parseQuery);
+        webSocketClientCallback.onMessage(createUnsubscribedMessage(subscriptionHandling.getRequestId()).toString());
+        assertEquals(0, metrics.getEventsDelivered(subscriptionHandling.getRequestId()));
+        assertEquals(1, metrics.getEventsDelivered());
+    }
+
     @Test
     public void testSubscriptionStoppedAfterUnsubscribe() throws Exception {
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
         ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
         SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
                 mock(SubscriptionHandling.HandleSubscribeCallback.class));
@@ -361,7 +499,7 @@ public class TestParseLiveQueryClient {
         subscriptionHandling.handleUnsubscribe(unsubscribeMockCallback);
 
         parseLiveQueryClient.unsubscribe(parseQuery);
-        verify(webSocketClient, times(1)).send(any(String.class));
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"unsubscribe\""));
         webSocketClientCallback.onMessage(createUnsubscribedMessage(subscriptionHandling.getRequestId()).toString());
         verify(unsubscribeMockCallback, times(1)).onUnsubscribe(parseQuery);
 
@@ -373,6 +511,78 @@ public class TestParseLiveQueryClient {
         verify(eventMockCallback, times(0)).onEvent(eq(parseQuery), objectCaptor.capture());
     }
 
+    @Test
+    public void testUnsubscribeAll() throws Exception {
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+        ParseQuery<ParseObject> queryA = new ParseQuery<>("testA");
+        ParseQuery<ParseObject> queryB = new ParseQuery<>("testB");
+        SubscriptionHandling<ParseObject> handleA = createSubscription(queryA,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling<ParseObject> handleB = createSubscription(queryB,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling<ParseObject> handleC = createSubscription(queryB,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+
+        ((ParseLiveQueryClientBatch) parseLiveQueryClient).unsubscribeAll(Arrays.asList(handleA, handleB));
+        verify(webSocketClient, times(2)).send(contains("\"op\":\"unsubscribe\""));
+        verify(webSocketClient, times(1)).send(contains("\"requestId\":" + handleA.getRequestId() + "}"));
+        verify(webSocketClient, times(1)).send(contains("\"requestId\":" + handleB.getRequestId() + "}"));
+
+        // Already unsubscribed
+        parseLiveQueryClient.unsubscribe(queryA, handleA);
+        verify(webSocketClient, times(2)).send(contains("\"op\":\"unsubscribe\""));
+
+        parseLiveQueryClient.unsubscribe(queryB);
+        verify(webSocketClient, times(1)).send(contains("\"requestId\":" + handleC.getRequestId() + "}"));
+    }
+
+    @Test
+    public void testUnsubscribeBeforeConnectedCancelsSubscribe() throws Exception {
+        ParseQuery<ParseObject> queryA = ParseQuery.getQuery("objA");
+        ParseQuery<ParseObject> queryB = ParseQuery.getQuery("objB");
+        clearConnection();
+
+        SubscriptionHandling<ParseObject> subA = parseLiveQueryClient.subscribe(queryA);
+        webSocketClientCallback.onOpen();
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+        parseLiveQueryClient.subscribe(queryB);
+
+        SubscriptionHandling.HandleUnsubscribeCallback<ParseObject> unsubscribeMockCallback = mock(
+                SubscriptionHandling.HandleUnsubscribeCallback.class);
+        subA.handleUnsubscribe(unsubscribeMockCallback);
+        parseLiveQueryClient.unsubscribe(queryA);
+        verify(unsubscribeMockCallback, times(1)).onUnsubscribe(queryA);
+
+        // Neither the subscribe nor the unsubscribe for queryA reach the server
+        webSocketClientCallback.onMessage(createConnectedMessage().toString());
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"subscribe\""));
+        verify(webSocketClient, times(1)).send(contains("objB"));
+        verify(webSocketClient, never()).send(contains("objA"));
+        verify(webSocketClient, never()).send(contains("\"op\":\"unsubscribe\""));
+    }
+
+    @Test
+    public void testUnsubscribeWhileDisconnectedCompletesOnConnected() throws Exception {
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling.HandleUnsubscribeCallback<ParseObject> unsubscribeMockCallback = mock(
+                SubscriptionHandling.HandleUnsubscribeCallback.class);
+        subscriptionHandling.handleUnsubscribe(unsubscribeMockCallback);
+
+        webSocketClientCallback.onClose();
+        parseLiveQueryClient.unsubscribe(parseQuery);
+        verify(webSocketClient, never()).send(contains("\"op\":\"unsubscribe\""));
+        verify(unsubscribeMockCallback, never()).onUnsubscribe(parseQuery);
+
+        // The new connection never had the subscription, so there is nothing to unsubscribe from
+        reconnect();
+        verify(webSocketClient, never()).send(contains("\"op\":\"subscribe\""));
+        verify(webSocketClient, never()).send(contains("\"op\":\"unsubscribe\""));
+        verify(unsubscribeMockCallback, times(1)).onUnsubscribe(parseQuery);
+    }
+
     @Test
     public void testSubscriptionReplayedAfterReconnect() throws Exception {
         SubscriptionHandling.HandleSubscribeCallback<ParseObject> subscribeMockCallback = mock(SubscriptionHandling.HandleSubscribeCallback.class);
@@ -386,6 +596,35 @@ public class TestParseLiveQueryClient {
         verify(webSocketClient, times(2)).send(any(String.class));
     }
 
+    @Test
+    public void testResubscribeLooksUpSessionTokenOnce() throws Exception {
+        when(mockUser.getSessionToken()).thenReturn("the token");
+        SubscriptionHandling<ParseObject> handleA = createSubscription(new ParseQuery<>("testA"),
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling<ParseObject> handleB = createSubscription(new ParseQuery<>("testB"),
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling<ParseObject> handleC = createSubscription(new ParseQuery<>("testC"),
+                mock(SubscriptionHandling.HandleSubscribeCallback.class));
+
+        parseLiveQueryClient.disconnect();
+        reset(mockUser);
+        when(mockUser.getSessionToken()).thenReturn("the token");
+        reconnect();
+
+        // Once for op=connect, once for all op=subscribe
+        verify(mockUser, times(2)).getSessionToken();
+        verify(webSocketClient, times(3)).send(and(
+                contains("\"op\":\"subscribe\""),
+                contains("\"sessionToken\":\"the token\"")));
+
+        assertEquals(-1, ((ParseLiveQueryClientStats) parseLiveQueryClient).getLastResubscribeDurationMillis());
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleA.getRequestId()).toString());
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleB.getRequestId()).toString());
+        assertEquals(-1, ((ParseLiveQueryClientStats) parseLiveQueryClient).getLastResubscribeDurationMillis());
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleC.getRequestId()).toString());
+        assertTrue(((ParseLiveQueryClientStats) parseLiveQueryClient).getLastResubscribeDurationMillis() >= 0);
+    }
+
     @Test
     public void testSessionTokenSentOnConnect() {
         when(mockUser.getSessionToken()).thenReturn("the token");
@@ -479,6 +718,552 @@ public class TestParseLiveQueryClient {
         callbacks.transcript.assertEventsSoFar("onLiveQueryError: com.parse.livequery.LiveQueryException$ServerReportedException: Server reported error; code: 1, error: testError, reconnect: true");
     }
 
+    @Test
+    public void testAutomaticReconnectAfterUnexpectedClose() throws Exception {
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .automaticReconnect(1, 1, TimeUnit.MILLISECONDS, 3)
+                .build());
+        reconnect();
+        WebSocketClient firstWebSocketClient = webSocketClient;
+
+        webSocketClientCallback.onClose();
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (webSocketClient == firstWebSocketClient && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(webSocketClient != firstWebSocketClient);
+        verify(firstWebSocketClient, times(1)).close();
+        verify(webSocketClient, timeout(1000)).open();
+    }
+
+    @Test
+    public void testNoAutomaticReconnectAfterFatalServerError() throws Exception {
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .automaticReconnect(1, 1, TimeUnit.MILLISECONDS, 3)
+                .build());
+        reconnect();
+        WebSocketClient firstWebSocketClient = webSocketClient;
+
+        JSONObject error = createErrorMessage(1);
+        error.remove("requestId");
+        error.put("reconnect", false);
+        webSocketClientCallback.onMessage(error.toString());
+        webSocketClientCallback.onClose();
+
+        Thread.sleep(100);
+        assertSame(firstWebSocketClient, webSocketClient);
+    }
+
+    @Test
+    public void testCallbacksOfReplacedSocketIgnored() throws Exception {
+        LoggingCallbacks callbacks = new LoggingCallbacks();
+        parseLiveQueryClient.registerListener(callbacks);
+        WebSocketClient firstWebSocketClient = webSocketClient;
+        WebSocketClient.WebSocketClientCallback firstCallback = webSocketClientCallback;
+
+        parseLiveQueryClient.reconnect();
+        verify(firstWebSocketClient, times(1)).close();
+
+        // Whatever the replaced socket still reports must not affect the new one
+        firstCallback.onClose();
+        firstCallback.onError(new IOException("bad things happened"));
+        firstCallback.onMessage(createConnectedMessage().toString());
+        callbacks.transcript.assertNoEventsSoFar();
+        verify(webSocketClient, never()).send(anyString());
+
+        webSocketClientCallback.onOpen();
+        webSocketClientCallback.onMessage(createConnectedMessage().toString());
+        callbacks.transcript.assertEventsSoFar("onLiveQueryClientConnected");
+    }
+
+    @Test
+    public void testConcurrentConnectsOpenOneSocket() throws Exception {
+        final AtomicInteger openedCount = new AtomicInteger();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new URI(""), new WebSocketClientFactory() {
+            @Override
+            public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
+                return new WebSocketClient() {
+                    @Override
+                    public void open() {
+                        openedCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+
+                    @Override
+                    public void send(String message) {
+                    }
+
+                    @Override
+                    public State getState() {
+                        return State.CONNECTING;
+                    }
+                };
+            }
+        }, new ImmediateExecutor());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        parseLiveQueryClient.connectIfNeeded();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, openedCount.get());
+    }
+
+    @Test
+    public void testEquivalentQueriesShareServerSubscription() throws Exception {
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .multiplexSubscriptions(true)
+                .metrics(metrics)
+                .build());
+        reconnect();
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+
+        ParseQuery<ParseObject> queryA = new ParseQuery<>("test").whereEqualTo("a", 1).whereEqualTo("b", 2);
+        ParseQuery<ParseObject> queryB = new ParseQuery<>("test").whereEqualTo("b", 2).whereEqualTo("a", 1);
+        SubscriptionHandling<ParseObject> handleA = createSubscription(queryA, mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        SubscriptionHandling<ParseObject> handleB = parseLiveQueryClient.subscribe(queryB);
+
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"subscribe\""));
+        assertEquals(handleA.getRequestId(), handleB.getRequestId());
+
+        SubscriptionHandling.HandleEventCallback<ParseObject> eventMockCallbackA = mock(SubscriptionHandling.HandleEventCallback.class);
+        SubscriptionHandling.HandleEventCallback<ParseObject> eventMockCallbackB = mock(SubscriptionHandling.HandleEventCallback.class);
+        handleA.handleEvent(SubscriptionHandling.Event.CREATE, eventMockCallbackA);
+        handleB.handleEvent(SubscriptionHandling.Event.CREATE, eventMockCallbackB);
+
+        ParseObject parseObject = new ParseObject("Test");
+        parseObject.setObjectId("testId");
+        webSocketClientCallback.onMessage(createObjectCreateMessage(handleA.getRequestId(), parseObject).toString());
+
+        ArgumentCaptor<ParseObject> objectCaptorA = ArgumentCaptor.forClass(ParseObject.class);
+        ArgumentCaptor<ParseObject> objectCaptorB = ArgumentCaptor.forClass(ParseObject.class);
+        verify(eventMockCallbackA, times(1)).onEvent(eq(queryA), objectCaptorA.capture());
+        verify(eventMockCallbackB, times(1)).onEvent(eq(queryB), objectCaptorB.capture());
+        assertSame(objectCaptorA.getValue(), objectCaptorB.getValue());
+        // Delivered once on the wire, so counted once
+        assertEquals(1, metrics.getEventsDelivered(handleA.getRequestId()));
+        assertEquals(1, metrics.getEventsDelivered());
+
+        // Only the last unsubscribe reaches the server
+        SubscriptionHandling.HandleUnsubscribeCallback<ParseObject> unsubscribeMockCallbackA = mock(SubscriptionHandling.HandleUnsubscribeCallback.class);
+        SubscriptionHandling.HandleUnsubscribeCallback<ParseObject> unsubscribeMockCallbackB = mock(SubscriptionHandling.HandleUnsubscribeCallback.class);
+        handleA.handleUnsubscribe(unsubscribeMockCallbackA);
+        handleB.handleUnsubscribe(unsubscribeMockCallbackB);
+
+        parseLiveQueryClient.unsubscribe(queryA, handleA);
+        verify(webSocketClient, never()).send(contains("\"op\":\"unsubscribe\""));
+        verify(unsubscribeMockCallbackA, times(1)).onUnsubscribe(queryA);
+
+        parseLiveQueryClient.unsubscribe(queryB, handleB);
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"unsubscribe\""));
+        webSocketClientCallback.onMessage(createUnsubscribedMessage(handleB.getRequestId()).toString());
+        verify(unsubscribeMockCallbackB, times(1)).onUnsubscribe(queryB);
+    }
+
+    @Test
+    public void testJoiningSubscriptionIsSubscribedOnce() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        tasks.add(command);
+                    }
+                })
+                .multiplexSubscriptions(true)
+                .build());
+        reconnect();
+        runTasks(tasks);
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+
+        ParseQuery<ParseObject> queryA = new ParseQuery<>("test").whereEqualTo("a", 1);
+        ParseQuery<ParseObject> queryB = new ParseQuery<>("test").whereEqualTo("a", 1);
+        SubscriptionHandling<ParseObject> handleA = parseLiveQueryClient.subscribe(queryA);
+        runTasks(tasks);
+
+        // The confirmation is still being handled when the second subscription joins
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleA.getRequestId()).toString());
+        SubscriptionHandling.HandleSubscribeCallback<ParseObject> subscribeMockCallbackB = mock(SubscriptionHandling.HandleSubscribeCallback.class);
+        parseLiveQueryClient.subscribe(queryB).handleSubscribe(subscribeMockCallbackB);
+        runTasks(tasks);
+        verify(subscribeMockCallbackB, times(1)).onSubscribe(queryB);
+
+        // Joining a subscription that is already confirmed
+        ParseQuery<ParseObject> queryC = new ParseQuery<>("test").whereEqualTo("a", 1);
+        SubscriptionHandling.HandleSubscribeCallback<ParseObject> subscribeMockCallbackC = mock(SubscriptionHandling.HandleSubscribeCallback.class);
+        parseLiveQueryClient.subscribe(queryC).handleSubscribe(subscribeMockCallbackC);
+        runTasks(tasks);
+        verify(subscribeMockCallbackC, times(1)).onSubscribe(queryC);
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"subscribe\""));
+    }
+
+    @Test
+    public void testRedirectReplaysConnectAndSubscriptions() throws Exception {
+        SubscriptionHandling.HandleSubscribeCallback<ParseObject> subscribeMockCallback = mock(SubscriptionHandling.HandleSubscribeCallback.class);
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = createSubscription(parseQuery, subscribeMockCallback);
+        WebSocketClient firstWebSocketClient = webSocketClient;
+
+        JSONObject redirect = new JSONObject();
+        redirect.put("op", "redirect");
+        redirect.put("url", "https://other.example.com/live");
+        webSocketClientCallback.onMessage(redirect.toString());
+
+        assertTrue(webSocketClient != firstWebSocketClient);
+        verify(firstWebSocketClient, times(1)).close();
+        assertEquals(new URI("wss://other.example.com/live"), webSocketUri);
+        verify(webSocketClient, times(1)).open();
+
+        webSocketClientCallback.onOpen();
+        verify(webSocketClient, times(1)).send(contains("\"op\":\"connect\""));
+        webSocketClientCallback.onMessage(createConnectedMessage().toString());
+        verify(webSocketClient, times(1)).send(contains("\"requestId\":" + subscriptionHandling.getRequestId()));
+        webSocketClientCallback.onMessage(createSubscribedMessage(subscriptionHandling.getRequestId()).toString());
+        verify(subscribeMockCallback, times(2)).onSubscribe(parseQuery);
+    }
+
+    @Test
+    public void testRedirectToUnsupportedSchemeIgnored() throws Exception {
+        createSubscription(new ParseQuery<>("test"), mock(SubscriptionHandling.HandleSubscribeCallback.class));
+        WebSocketClient firstWebSocketClient = webSocketClient;
+
+        JSONObject redirect = new JSONObject();
+        redirect.put("op", "redirect");
+        redirect.put("url", "ftp://other.example.com/live");
+        webSocketClientCallback.onMessage(redirect.toString());
+
+        assertSame(firstWebSocketClient, webSocketClient);
+        verify(firstWebSocketClient, never()).close();
+    }
+
+    @Test
+    public void testFailoverToFallbackUri() throws Exception {
+        URI primary = new URI("wss://primary.example.com");
+        URI fallback = new URI("wss://fallback.example.com");
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(primary)
+                .fallbackUris(Arrays.asList(fallback))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .automaticReconnect(1, 1, TimeUnit.MILLISECONDS, 3)
+                .build());
+        parseLiveQueryClient.reconnect();
+        assertEquals(primary, webSocketUri);
+        WebSocketClient firstWebSocketClient = webSocketClient;
+
+        // The primary can't be reached
+        webSocketClientCallback.onError(new IOException("Connection refused"));
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (webSocketClient == firstWebSocketClient && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(fallback, webSocketUri);
+        verify(webSocketClient, timeout(1000)).open();
+    }
+
+    @Test
+    public void testRoundTripTimeSampledFromAnswers() throws Exception {
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new URI(""), mockWebSocketClientFactory(), new ImmediateExecutor());
+        assertEquals(-1, ((ParseLiveQueryClientStats) parseLiveQueryClient).getRoundTripTimeMillis());
+
+        parseLiveQueryClient.reconnect();
+        webSocketClientCallback.onOpen();
+        Thread.sleep(20);
+        webSocketClientCallback.onMessage(createConnectedMessage().toString());
+        long afterConnect = ((ParseLiveQueryClientStats) parseLiveQueryClient).getRoundTripTimeMillis();
+        assertTrue(afterConnect >= 20);
+
+        // Answers to subscribes written to the socket are sampled as well
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+        SubscriptionHandling<ParseObject> subscriptionHandling = parseLiveQueryClient.subscribe(new ParseQuery<>("test"));
+        webSocketClientCallback.onMessage(createSubscribedMessage(subscriptionHandling.getRequestId()).toString());
+        assertTrue(((ParseLiveQueryClientStats) parseLiveQueryClient).getRoundTripTimeMillis() < afterConnect);
+    }
+
+    @Test
+    public void testEventBatchesDeliveredOncePerFrame() throws Exception {
+        ShadowLooper.pauseMainLooper();
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("test");
+        LiveQueryEventHandling.HandleEventBatchCallback<ParseObject> batchMockCallback = mock(LiveQueryEventHandling.HandleEventBatchCallback.class);
+        SubscriptionHandling<ParseObject> subscriptionHandling = ((LiveQueryEventHandling<ParseObject>) createSubscription(parseQuery,
+                mock(SubscriptionHandling.HandleSubscribeCallback.class))).handleEventBatchesOnMainThread(batchMockCallback);
+
+        for (int score = 1; score <= 3; score++) {
+            webSocketClientCallback.onMessage(createObjectMessage("update", subscriptionHandling.getRequestId(), score).toString());
+        }
+        verify(batchMockCallback, never()).onEventBatch(any(ParseQuery.class), any(List.class));
+
+        // The next frame delivers everything received so far, in order
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(batchMockCallback, times(1)).onEventBatch(eq(parseQuery), batchCaptor.capture());
+        List<LiveQueryEvent<ParseObject>> batch = batchCaptor.getValue();
+        assertEquals(3, batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(SubscriptionHandling.Event.UPDATE, batch.get(i).getEvent());
+            assertEquals(i + 1, batch.get(i).getObject().getInt("score"));
+        }
+
+        // Later events make up a new batch
+        webSocketClientCallback.onMessage(createObjectMessage("create", subscriptionHandling.getRequestId(), 4).toString());
+        verify(batchMockCallback, times(1)).onEventBatch(any(ParseQuery.class), any(List.class));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        verify(batchMockCallback, times(2)).onEventBatch(eq(parseQuery), batchCaptor.capture());
+        assertEquals(1, batchCaptor.getValue().size());
+    }
+
+    @Test
+    public void testIdentityMapMergesEventsIntoOneInstance() throws Exception {
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .identityMap(100)
+                .build());
+        reconnect();
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+
+        ParseQuery<ParseObject> queryA = new ParseQuery<>("Test");
+        ParseQuery<ParseObject> queryB = new ParseQuery<>("Test").whereEqualTo("score", 2);
+        SubscriptionHandling<ParseObject> handleA = parseLiveQueryClient.subscribe(queryA);
+        SubscriptionHandling<ParseObject> handleB = parseLiveQueryClient.subscribe(queryB);
+        SubscriptionHandling.HandleEventsCallback<ParseObject> callbackA = mock(SubscriptionHandling.HandleEventsCallback.class);
+        SubscriptionHandling.HandleEventsCallback<ParseObject> callbackB = mock(SubscriptionHandling.HandleEventsCallback.class);
+        handleA.handleEvents(callbackA);
+        handleB.handleEvents(callbackB);
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleA.getRequestId()).toString());
+        webSocketClientCallback.onMessage(createSubscribedMessage(handleB.getRequestId()).toString());
+
+        webSocketClientCallback.onMessage(createObjectMessage("create", handleA.getRequestId(), 1).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("update", handleA.getRequestId(), 2).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("enter", handleB.getRequestId(), 2).toString());
+
+        ArgumentCaptor<ParseObject> objectCaptorA = ArgumentCaptor.forClass(ParseObject.class);
+        ArgumentCaptor<ParseObject> objectCaptorB = ArgumentCaptor.forClass(ParseObject.class);
+        verify(callbackA, times(2)).onEvents(eq(queryA), any(SubscriptionHandling.Event.class), objectCaptorA.capture());
+        verify(callbackB, times(1)).onEvents(eq(queryB), eq(SubscriptionHandling.Event.ENTER), objectCaptorB.capture());
+        ParseObject instance = objectCaptorA.getAllValues().get(0);
+        assertSame(instance, objectCaptorA.getAllValues().get(1));
+        assertSame(instance, objectCaptorB.getValue());
+        assertEquals(2, instance.getInt("score"));
+
+        // A deleted object is forgotten, so an object created with the same id is a new instance
+        webSocketClientCallback.onMessage(createObjectMessage("delete", handleA.getRequestId(), 2).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("create", handleA.getRequestId(), 3).toString());
+        verify(callbackA, times(4)).onEvents(eq(queryA), any(SubscriptionHandling.Event.class), objectCaptorA.capture());
+        assertSame(instance, objectCaptorA.getAllValues().get(4));
+        assertTrue(instance != objectCaptorA.getAllValues().get(5));
+    }
+
+    @Test
+    public void testIdentityMapMergesInReceiveOrderWhenDecodedLater() throws Exception {
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(mockWebSocketClientFactory())
+                .taskExecutor(new ImmediateExecutor())
+                .identityMap(100)
+                .build());
+        reconnect();
+        when(webSocketClient.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+
+        ParseQuery<ParseObject> parseQuery = new ParseQuery<>("Test");
+        SubscriptionHandling<ParseObject> subscriptionHandling = parseLiveQueryClient.subscribe(parseQuery);
+        // Keeps the events without decoding them, as a queue or publisher would
+        final List<LiveQueryEvent<ParseObject>> events = new ArrayList<>();
+        ((LiveQueryEventHandling<ParseObject>) subscriptionHandling).handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<ParseObject>() {
+            @Override
+            public void onEvents(ParseQuery<ParseObject> query, LiveQueryEvent<ParseObject> event) {
+                events.add(event);
+            }
+        });
+        webSocketClientCallback.onMessage(createSubscribedMessage(subscriptionHandling.getRequestId()).toString());
+
+        webSocketClientCallback.onMessage(createObjectMessage("create", subscriptionHandling.getRequestId(), 1).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("update", subscriptionHandling.getRequestId(), 2).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("delete", subscriptionHandling.getRequestId(), 2).toString());
+        webSocketClientCallback.onMessage(createObjectMessage("create", subscriptionHandling.getRequestId(), 3).toString());
+
+        // Decoding the older event last doesn't bring back its state
+        ParseObject instance = events.get(1).getObject();
+        assertSame(instance, events.get(0).getObject());
+        assertEquals(2, instance.getInt("score"));
+        // Nor does it bring back the deleted object
+        assertSame(instance, events.get(2).getObject());
+        ParseObject recreated = events.get(3).getObject();
+        assertTrue(instance != recreated);
+        assertEquals(3, recreated.getInt("score"));
+    }
+
+    @Test
+    public void testListenersRegisteredWhileDispatching() throws Exception {
+        JSONObject error = createErrorMessage(1);
+        error.remove("requestId");
+        final String errorMessage = error.toString();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean registering = new AtomicBoolean(true);
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (registering.get()) {
+                        webSocketClientCallback.onMessage(errorMessage);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        dispatcher.start();
+
+        List<Thread> registrars = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread registrar = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000; j++) {
+                            ParseLiveQueryClientCallbacks listener = new NoOpCallbacks();
+                            parseLiveQueryClient.registerListener(listener);
+                            if (j % 2 == 0) {
+                                parseLiveQueryClient.unregisterListener(listener);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            registrar.start();
+            registrars.add(registrar);
+        }
+        for (Thread registrar : registrars) {
+            registrar.join();
+        }
+        registering.set(false);
+        dispatcher.join();
+        assertNull(failure.get());
+
+        // Listeners registered concurrently are all kept
+        LoggingCallbacks callbacks = new LoggingCallbacks();
+        parseLiveQueryClient.registerListener(callbacks);
+        webSocketClientCallback.onMessage(errorMessage);
+        callbacks.transcript.assertEventsSoFar("onLiveQueryError: com.parse.livequery.LiveQueryException$ServerReportedException: Server reported error; code: 1, error: testError, reconnect: true");
+    }
+
+    @Test
+    public void testShardsSpreadSubscriptionsAndAggregateCallbacks() throws Exception {
+        final List<WebSocketClient> clients = new ArrayList<>();
+        final List<WebSocketClient.WebSocketClientCallback> callbacks = new ArrayList<>();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(new WebSocketClientFactory() {
+                    @Override
+                    public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
+                        WebSocketClient client = mock(WebSocketClient.class);
+                        when(client.getState()).thenReturn(WebSocketClient.State.CONNECTED);
+                        clients.add(client);
+                        callbacks.add(webSocketClientCallback);
+                        return client;
+                    }
+                })
+                .taskExecutor(new ImmediateExecutor())
+                .shards(2, ParseLiveQueryClient.ShardBy.CLASS_NAME)
+                .build());
+        LoggingCallbacks loggingCallbacks = new LoggingCallbacks();
+        parseLiveQueryClient.registerListener(loggingCallbacks);
+
+        parseLiveQueryClient.reconnect();
+        assertEquals(2, clients.size());
+        callbacks.get(0).onOpen();
+        callbacks.get(0).onMessage(createConnectedMessage().toString());
+        loggingCallbacks.transcript.assertNoEventsSoFar();
+        callbacks.get(1).onOpen();
+        callbacks.get(1).onMessage(createConnectedMessage().toString());
+        loggingCallbacks.transcript.assertEventsSoFar("onLiveQueryClientConnected");
+
+        // "A" hashes to the second shard, whose request ids are even, and "B" to the first
+        ParseQuery<ParseObject> queryA = new ParseQuery<>("A");
+        ParseQuery<ParseObject> queryB = new ParseQuery<>("B");
+        SubscriptionHandling<ParseObject> handleA = parseLiveQueryClient.subscribe(queryA);
+        SubscriptionHandling<ParseObject> handleA2 = parseLiveQueryClient.subscribe(new ParseQuery<>("A"));
+        SubscriptionHandling<ParseObject> handleB = parseLiveQueryClient.subscribe(queryB);
+        assertEquals(2, handleA.getRequestId());
+        assertEquals(4, handleA2.getRequestId());
+        assertEquals(1, handleB.getRequestId());
+        verify(clients.get(1), times(2)).send(contains("\"className\":\"A\""));
+        verify(clients.get(0), times(1)).send(contains("\"className\":\"B\""));
+        assertEquals(2, clients.size());
+
+        parseLiveQueryClient.unsubscribe(queryA, handleA);
+        verify(clients.get(1), times(1)).send(contains("\"op\":\"unsubscribe\""));
+        verify(clients.get(0), never()).send(contains("\"op\":\"unsubscribe\""));
+
+        callbacks.get(0).onClose();
+        callbacks.get(1).onClose();
+        loggingCallbacks.transcript.assertEventsSoFar("onLiveQueryClientDisconnected: false");
+    }
+
+    @Test
+    public void testSubscribeConnectsOnlyItsShard() throws Exception {
+        final List<WebSocketClient.WebSocketClientCallback> callbacks = new ArrayList<>();
+        parseLiveQueryClient = ParseLiveQueryClient.Factory.getClient(new ParseLiveQueryClient.Configuration.Builder()
+                .uri(new URI(""))
+                .webSocketClientFactory(new WebSocketClientFactory() {
+                    @Override
+                    public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
+                        callbacks.add(webSocketClientCallback);
+                        return mock(WebSocketClient.class);
+                    }
+                })
+                .taskExecutor(new ImmediateExecutor())
+                .shards(2, ParseLiveQueryClient.ShardBy.CLASS_NAME)
+                .build());
+        LoggingCallbacks loggingCallbacks = new LoggingCallbacks();
+        parseLiveQueryClient.registerListener(loggingCallbacks);
+
+        parseLiveQueryClient.subscribe(new ParseQuery<>("B"));
+        assertEquals(1, callbacks.size());
+        callbacks.get(0).onOpen();
+        callbacks.get(0).onMessage(createConnectedMessage().toString());
+        loggingCallbacks.transcript.assertEventsSoFar("onLiveQueryClientConnected");
+    }
+
     private SubscriptionHandling<ParseObject> createSubscription(ParseQuery<ParseObject> parseQuery,
             SubscriptionHandling.HandleSubscribeCallback<ParseObject> subscribeMockCallback) throws Exception {
         SubscriptionHandling<ParseObject> subscriptionHandling = parseLiveQueryClient.subscribe(parseQuery).handleSubscribe(subscribeMockCallback);
@@ -498,11 +1283,29 @@ public class TestParseLiveQueryClient {
         assertEquals(originalParseObject.getObjectId(), newParseObject.getObjectId());
     }
 
+    private WebSocketClientFactory mockWebSocketClientFactory() {
+        return new WebSocketClientFactory() {
+            @Override
+            public WebSocketClient createInstance(WebSocketClient.WebSocketClientCallback webSocketClientCallback, URI hostUrl) {
+                TestParseLiveQueryClient.this.webSocketClientCallback = webSocketClientCallback;
+                webSocketUri = hostUrl;
+                webSocketClient = mock(WebSocketClient.class);
+                return webSocketClient;
+            }
+        };
+    }
+
     private void clearConnection() {
         webSocketClient = null;
         webSocketClientCallback = null;
     }
 
+    private static void runTasks(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
     private void reconnect() {
         parseLiveQueryClient.reconnect();
         webSocketClientCallback.onOpen();
@@ -544,6 +1347,18 @@ public class TestParseLiveQueryClient {
         return jsonObject;
     }
 
+    private static JSONObject createObjectMessage(String op, int requestId, int score) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("className", "Test");
+        object.put("objectId", "testId");
+        object.put("score", score);
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("op", op);
+        jsonObject.put("requestId", requestId);
+        jsonObject.put("object", object);
+        return jsonObject;
+    }
+
     private static JSONObject createObjectCreateMessage(int requestId, ParseObject parseObject) throws JSONException {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("op", "create");
@@ -584,6 +1399,25 @@ public class TestParseLiveQueryClient {
         return jsonObject;
     }
 
+    private static class NoOpCallbacks implements ParseLiveQueryClientCallbacks {
+
+        @Override
+        public void onLiveQueryClientConnected(ParseLiveQueryClient client) {
+        }
+
+        @Override
+        public void onLiveQueryClientDisconnected(ParseLiveQueryClient client, boolean userInitiated) {
+        }
+
+        @Override
+        public void onLiveQueryError(ParseLiveQueryClient client, LiveQueryException reason) {
+        }
+
+        @Override
+        public void onSocketError(ParseLiveQueryClient client, Throwable reason) {
+        }
+    }
+
     private static class LoggingCallbacks implements ParseLiveQueryClientCallbacks {
         final Transcript transcript = new Transcript();
 
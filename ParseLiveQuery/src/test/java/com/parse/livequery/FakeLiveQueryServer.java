@@ -0,0 +1,298 @@
+package com.parse.livequery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * An in-process stand-in for a live query server, for load and soak tests of the real socket stack.
+ * <p>
+ * It speaks enough of the protocol to accept {@code connect}, {@code subscribe} and
+ * {@code unsubscribe}, and can be scripted to emit events to every subscription at a given rate,
+ * drop connections at random and send redirects. Every event object carries the
+ * {@link System#nanoTime()} at which it was sent in {@link #SENT_AT_NANOS}, so in-process clients
+ * can measure end-to-end latency.
+ */
+public class FakeLiveQueryServer {
+
+    public static final String SENT_AT_NANOS = "sentAtNanos";
+
+    private final MockWebServer server = new MockWebServer();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random();
+    private final AtomicInteger clientIds = new AtomicInteger();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger disconnects = new AtomicInteger();
+
+    private ScheduledFuture<?> emitter;
+    private ScheduledFuture<?> disconnector;
+
+    public FakeLiveQueryServer() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(new Connection());
+            }
+        });
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    /**
+     * @return The URI clients connect to.
+     */
+    public URI getUri() {
+        return URI.create("ws://" + server.getHostName() + ":" + server.getPort() + "/");
+    }
+
+    /**
+     * Emits events to the subscriptions of every connection in turn, spread evenly over each second.
+     *
+     * @param op              The event type, e.g. {@code update}.
+     * @param eventsPerSecond The number of events per second, for all subscriptions together.
+     * @param fieldCount      The number of fields of each event object, besides the built-in ones.
+     */
+    public synchronized void emitEvents(final String op, int eventsPerSecond, final int fieldCount) {
+        stopEmitting();
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, eventsPerSecond);
+        emitter = scheduler.scheduleAtFixedRate(new Runnable() {
+            private long objectCount = 0;
+
+            @Override
+            public void run() {
+                int subscriptionCount = getSubscriptionCount();
+                if (subscriptionCount == 0) {
+                    return;
+                }
+                // One event per tick, so the rate is shared by the subscriptions
+                long target = objectCount % subscriptionCount;
+                for (Connection connection : connections) {
+                    for (Map.Entry<Integer, String> subscription : connection.subscriptions.entrySet()) {
+                        if (target-- == 0) {
+                            connection.sendEvent(op, subscription.getKey(), subscription.getValue(), objectCount++, fieldCount);
+                            return;
+                        }
+                    }
+                }
+            }
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stopEmitting() {
+        if (emitter != null) {
+            emitter.cancel(false);
+            emitter = null;
+        }
+    }
+
+    /**
+     * Drops each open connection with the given probability every second, as a flaky network would.
+     */
+    public synchronized void disconnectRandomly(final double probabilityPerSecond) {
+        if (disconnector != null) {
+            disconnector.cancel(false);
+        }
+        disconnector = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (Connection connection : connections) {
+                    if (random.nextDouble() < probabilityPerSecond) {
+                        connection.drop();
+                    }
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Drops every open connection.
+     */
+    public void disconnectAll() {
+        for (Connection connection : connections) {
+            connection.drop();
+        }
+    }
+
+    /**
+     * Tells every open connection to reconnect to another server.
+     */
+    public void sendRedirect(URI uri) {
+        for (Connection connection : connections) {
+            connection.send(json("op", "redirect", "url", uri.toString()));
+        }
+    }
+
+    /**
+     * Sends a raw message on every open connection.
+     */
+    public void sendToAll(String message) {
+        for (Connection connection : connections) {
+            connection.send(message);
+        }
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getSubscriptionCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            count += connection.subscriptions.size();
+        }
+        return count;
+    }
+
+    public long getEventsSent() {
+        return eventsSent.get();
+    }
+
+    public int getConnects() {
+        return connects.get();
+    }
+
+    public int getDisconnects() {
+        return disconnects.get();
+    }
+
+    public void shutdown() throws IOException {
+        scheduler.shutdownNow();
+        disconnectAll();
+        server.shutdown();
+    }
+
+    private static String json(String... keysAndValues) {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                jsonObject.put(keysAndValues[i], keysAndValues[i + 1]);
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return jsonObject.toString();
+    }
+
+    private class Connection extends WebSocketListener {
+
+        private final Map<Integer, String> subscriptions = new ConcurrentHashMap<>();
+        private volatile WebSocket webSocket;
+        private int clientId;
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            this.webSocket = webSocket;
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            try {
+                JSONObject message = new JSONObject(text);
+                String op = message.getString("op");
+                switch (op) {
+                    case "connect":
+                        clientId = clientIds.incrementAndGet();
+                        connections.add(this);
+                        connects.incrementAndGet();
+                        send(new JSONObject().put("op", "connected").put("clientId", clientId).toString());
+                        break;
+                    case "subscribe": {
+                        int requestId = message.getInt("requestId");
+                        subscriptions.put(requestId, message.getJSONObject("query").getString("className"));
+                        send(new JSONObject().put("op", "subscribed").put("clientId", clientId).put("requestId", requestId).toString());
+                        break;
+                    }
+                    case "unsubscribe": {
+                        int requestId = message.getInt("requestId");
+                        subscriptions.remove(requestId);
+                        send(new JSONObject().put("op", "unsubscribed").put("clientId", clientId).put("requestId", requestId).toString());
+                        break;
+                    }
+                    default:
+                        send(new JSONObject().put("op", "error").put("code", 1).put("error", "Unknown op " + op)
+                                .put("reconnect", true).toString());
+                        break;
+                }
+            } catch (JSONException e) {
+                send(json("op", "error", "error", "Invalid message"));
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(code, null);
+            closed();
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            closed();
+        }
+
+        private void sendEvent(String op, int requestId, String className, long objectCount, int fieldCount) {
+            try {
+                JSONObject object = new JSONObject()
+                        .put("className", className)
+                        .put("objectId", "o" + objectCount)
+                        .put("updatedAt", "2020-01-01T00:00:00.000Z")
+                        .put(SENT_AT_NANOS, System.nanoTime());
+                for (int i = 0; i < fieldCount; i++) {
+                    object.put("field" + i, "value of field " + i);
+                }
+                if (send(new JSONObject().put("op", op).put("clientId", clientId).put("requestId", requestId)
+                        .put("object", object).toString())) {
+                    eventsSent.incrementAndGet();
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private boolean send(String message) {
+            WebSocket webSocket = this.webSocket;
+            return webSocket != null && webSocket.send(message);
+        }
+
+        private void drop() {
+            WebSocket webSocket = this.webSocket;
+            if (webSocket != null) {
+                // Server side sockets can't be cancelled, so close as a server going away would
+                webSocket.close(1001, null);
+                closed();
+            }
+        }
+
+        private void closed() {
+            if (connections.remove(this)) {
+                disconnects.incrementAndGet();
+            }
+            webSocket = null;
+        }
+    }
+
+}
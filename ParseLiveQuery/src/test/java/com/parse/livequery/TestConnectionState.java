@@ -0,0 +1,63 @@
+package com.parse.livequery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.URI;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestConnectionState {
+
+    private static final URI ENDPOINT = URI.create("wss://example.com");
+
+    @Test
+    public void testEachSocketGetsNextGeneration() {
+        WebSocketClient first = mock(WebSocketClient.class);
+        WebSocketClient second = mock(WebSocketClient.class);
+
+        ConnectionState connecting = ConnectionState.INITIAL.connecting(first, ENDPOINT);
+        assertEquals(1, connecting.getGeneration());
+        assertSame(first, connecting.getClient());
+        assertTrue(connecting.is(1, ConnectionState.Phase.CONNECTING));
+
+        ConnectionState replaced = connecting.withPhase(ConnectionState.Phase.CONNECTED).connecting(second, ENDPOINT);
+        assertEquals(2, replaced.getGeneration());
+        // The first socket's generation no longer matches, whatever the phase
+        assertFalse(replaced.is(1, ConnectionState.Phase.values()));
+    }
+
+    @Test
+    public void testDisconnectKeepsGenerationOfClosingSocket() {
+        ConnectionState connected = ConnectionState.INITIAL.connecting(mock(WebSocketClient.class), ENDPOINT)
+                .withPhase(ConnectionState.Phase.CONNECTED);
+
+        ConnectionState disconnecting = connected.disconnecting();
+        assertTrue(disconnecting.is(1, ConnectionState.Phase.DISCONNECTING));
+        assertTrue(disconnecting.isUserInitiatedDisconnect());
+        assertNull(disconnecting.getClient());
+
+        ConnectionState closed = disconnecting.closed(disconnecting.isUserInitiatedDisconnect());
+        assertTrue(closed.is(1, ConnectionState.Phase.DISCONNECTED));
+        assertTrue(closed.isUserInitiatedDisconnect());
+
+        // There is no socket left to report a close, so the state stays disconnected
+        assertTrue(closed.closed(false).disconnecting().is(1, ConnectionState.Phase.DISCONNECTED));
+    }
+
+    @Test
+    public void testReconnectClearsUserInitiatedDisconnect() {
+        ConnectionState disconnected = ConnectionState.INITIAL.disconnecting();
+        assertTrue(disconnected.isUserInitiatedDisconnect());
+        assertFalse(disconnected.connecting(mock(WebSocketClient.class), ENDPOINT).isUserInitiatedDisconnect());
+    }
+}
@@ -0,0 +1,80 @@
+package com.parse.livequery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestEndpointSelector {
+
+    private static final URI PRIMARY = URI.create("wss://primary.example.com");
+    private static final URI FALLBACK_A = URI.create("wss://a.example.com");
+    private static final URI FALLBACK_B = URI.create("wss://b.example.com");
+    private static final URI REDIRECT = URI.create("wss://redirect.example.com");
+
+    @Test
+    public void testStaysOnOnlyEndpoint() {
+        EndpointSelector selector = new EndpointSelector(PRIMARY, Collections.<URI>emptyList());
+        assertEquals(PRIMARY, selector.failed(PRIMARY));
+        assertEquals(PRIMARY, selector.failed(PRIMARY));
+        assertEquals(PRIMARY, selector.current());
+    }
+
+    @Test
+    public void testFailsOverToHealthiestEndpoint() {
+        EndpointSelector selector = new EndpointSelector(PRIMARY, Arrays.asList(FALLBACK_A, FALLBACK_B));
+        assertEquals(PRIMARY, selector.current());
+
+        assertEquals(FALLBACK_A, selector.failed(PRIMARY));
+        assertEquals(FALLBACK_B, selector.failed(FALLBACK_A));
+        // Every endpoint failed once, so the primary is preferred again
+        assertEquals(PRIMARY, selector.failed(FALLBACK_B));
+        assertEquals(FALLBACK_A, selector.failed(PRIMARY));
+
+        // An endpoint that accepted a connection is healthy again, and the client sticks with it
+        selector.connected(FALLBACK_A);
+        assertEquals(FALLBACK_A, selector.current());
+        assertEquals(FALLBACK_A, selector.failed(FALLBACK_B));
+    }
+
+    @Test
+    public void testRedirectUsedUntilItFails() {
+        EndpointSelector selector = new EndpointSelector(PRIMARY, Collections.singletonList(FALLBACK_A));
+        selector.redirect(REDIRECT);
+        assertEquals(REDIRECT, selector.current());
+        selector.connected(REDIRECT);
+
+        assertEquals(PRIMARY, selector.failed(REDIRECT));
+        // The redirect is forgotten, so a late failure report does not count against anything
+        assertEquals(PRIMARY, selector.failed(REDIRECT));
+
+        selector.redirect(FALLBACK_A);
+        assertEquals(FALLBACK_A, selector.current());
+    }
+
+    @Test
+    public void testConsecutiveRedirectsCapped() {
+        EndpointSelector selector = new EndpointSelector(PRIMARY, Collections.singletonList(FALLBACK_A));
+        for (int i = 0; i < EndpointSelector.MAX_CONSECUTIVE_REDIRECTS; i++) {
+            URI uri = URI.create("wss://redirect" + i + ".example.com");
+            assertEquals(uri, selector.redirect(uri));
+        }
+        // Back to the configured endpoints, where further redirects are ignored
+        assertEquals(PRIMARY, selector.redirect(REDIRECT));
+        assertNull(selector.redirect(REDIRECT));
+        assertEquals(PRIMARY, selector.current());
+
+        // Until a subscription is confirmed
+        selector.settled();
+        assertEquals(REDIRECT, selector.redirect(REDIRECT));
+    }
+}
@@ -0,0 +1,132 @@
+package com.parse.livequery;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestFakeLiveQueryServer {
+
+    private FakeLiveQueryServer server;
+    private WebSocketClient webSocketClient;
+    private final BlockingQueue<JSONObject> messages = new LinkedBlockingQueue<>();
+    private final CountDownLatch opened = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeLiveQueryServer();
+        server.start();
+        webSocketClient = new OkHttp3SocketClientFactory(new OkHttpClient()).createInstance(new WebSocketClient.WebSocketClientCallback() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                try {
+                    messages.add(new JSONObject(message));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+
+            @Override
+            public void onClose() {
+                closed.countDown();
+            }
+
+            @Override
+            public void onError(Throwable exception) {
+                closed.countDown();
+            }
+
+            @Override
+            public void stateChanged() {
+            }
+        }, server.getUri());
+        webSocketClient.open();
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        webSocketClient.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testSpeaksProtocolOverRealSocket() throws Exception {
+        webSocketClient.send("{\"op\":\"connect\",\"applicationId\":\"1234\"}");
+        assertEquals("connected", nextMessage().getString("op"));
+
+        webSocketClient.send("{\"op\":\"subscribe\",\"requestId\":1,\"query\":{\"className\":\"Test\",\"where\":{}}}");
+        JSONObject subscribed = nextMessage();
+        assertEquals("subscribed", subscribed.getString("op"));
+        assertEquals(1, subscribed.getInt("requestId"));
+
+        server.emitEvents("create", 1000, 2);
+        JSONObject event = nextMessage();
+        server.stopEmitting();
+        assertEquals("create", event.getString("op"));
+        assertEquals(1, event.getInt("requestId"));
+        assertEquals("Test", event.getJSONObject("object").getString("className"));
+        assertTrue(event.getJSONObject("object").has(FakeLiveQueryServer.SENT_AT_NANOS));
+    }
+
+    @Test
+    public void testEventsTakeTurnsBetweenSubscriptions() throws Exception {
+        webSocketClient.send("{\"op\":\"connect\",\"applicationId\":\"1234\"}");
+        assertEquals("connected", nextMessage().getString("op"));
+        webSocketClient.send("{\"op\":\"subscribe\",\"requestId\":1,\"query\":{\"className\":\"Test\",\"where\":{}}}");
+        assertEquals("subscribed", nextMessage().getString("op"));
+        webSocketClient.send("{\"op\":\"subscribe\",\"requestId\":2,\"query\":{\"className\":\"Test\",\"where\":{}}}");
+        assertEquals("subscribed", nextMessage().getString("op"));
+
+        // The rate is for both subscriptions together, not for each
+        server.emitEvents("create", 1000, 0);
+        int previousRequestId = nextMessage().getInt("requestId");
+        for (int i = 0; i < 4; i++) {
+            int requestId = nextMessage().getInt("requestId");
+            assertTrue(requestId != previousRequestId);
+            previousRequestId = requestId;
+        }
+        server.stopEmitting();
+    }
+
+    @Test
+    public void testDisconnectAll() throws Exception {
+        webSocketClient.send("{\"op\":\"connect\",\"applicationId\":\"1234\"}");
+        assertEquals("connected", nextMessage().getString("op"));
+        assertEquals(1, server.getConnectionCount());
+
+        server.disconnectAll();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, server.getConnectionCount());
+        assertEquals(1, server.getDisconnects());
+    }
+
+    private JSONObject nextMessage() throws InterruptedException {
+        JSONObject message = messages.poll(5, TimeUnit.SECONDS);
+        if (message == null) {
+            throw new AssertionError("No message received");
+        }
+        return message;
+    }
+}
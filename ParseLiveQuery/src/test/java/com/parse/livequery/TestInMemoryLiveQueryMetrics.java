@@ -0,0 +1,69 @@
+package com.parse.livequery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestInMemoryLiveQueryMetrics {
+
+    @Test
+    public void testCounters() {
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        metrics.onMessageReceived(10);
+        metrics.onMessageReceived(20);
+        metrics.onMessageSent(5);
+        metrics.onInboundQueueDepth(3);
+        metrics.onInboundQueueDepth(1);
+        metrics.onSubscribed(1);
+        metrics.onSubscribed(2);
+        metrics.onEventDelivered(1, 100);
+        metrics.onEventDelivered(1, 100);
+        metrics.onEventDelivered(2, 100);
+
+        assertEquals(2, metrics.getMessagesReceived());
+        assertEquals(30, metrics.getBytesReceived());
+        assertEquals(1, metrics.getMessagesSent());
+        assertEquals(5, metrics.getBytesSent());
+        assertEquals(1, metrics.getInboundQueueDepth());
+        assertEquals(3, metrics.getMaxInboundQueueDepth());
+        assertEquals(3, metrics.getEventsDelivered());
+        assertEquals(2, metrics.getEventsDelivered(1));
+        assertEquals(1, metrics.getEventsDelivered(2));
+        assertEquals(0, metrics.getEventsDelivered(3));
+
+        // Forgotten with the subscription, but still in the total
+        metrics.onUnsubscribed(1);
+        assertEquals(0, metrics.getEventsDelivered(1));
+        assertEquals(3, metrics.getEventsDelivered());
+
+        // A late event does not bring the subscription back
+        metrics.onEventDelivered(1, 100);
+        assertEquals(0, metrics.getEventsDelivered(1));
+        assertEquals(4, metrics.getEventsDelivered());
+    }
+
+    @Test
+    public void testLatencyPercentilesWithinFactorOfTwo() {
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        assertEquals(0, metrics.getDeliveryLatency(50, TimeUnit.NANOSECONDS));
+
+        for (int i = 1; i <= 100; i++) {
+            metrics.onEventDelivered(1, i * 1000L);
+        }
+
+        long median = metrics.getDeliveryLatency(50, TimeUnit.NANOSECONDS);
+        assertTrue(median >= 50000 && median < 100000);
+        long p99 = metrics.getDeliveryLatency(99, TimeUnit.NANOSECONDS);
+        assertTrue(p99 >= 99000 && p99 <= 100000);
+        assertEquals(100000, metrics.getDeliveryLatency(100, TimeUnit.NANOSECONDS));
+        assertEquals(100, metrics.getMaxDeliveryLatency(TimeUnit.MICROSECONDS));
+    }
+}
@@ -0,0 +1,142 @@
+package com.parse.livequery;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestInboundQueue {
+
+    private static final ServerMessage.Filter ACCEPT_ALL = new ServerMessage.Filter() {
+        @Override
+        public boolean wantsObject(int requestId) {
+            return true;
+        }
+    };
+
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+    private final List<String> handled = new ArrayList<>();
+    private int dropped;
+
+    private StripedExecutor executor;
+    private InboundQueue.Handler handler;
+
+    @Before
+    public void setUp() {
+        executor = new StripedExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                pendingTasks.add(runnable);
+            }
+        }, 1);
+        handler = new InboundQueue.Handler() {
+            @Override
+            public void handle(ServerMessage message) {
+                try {
+                    handled.add(message.getOp() + ":" + message.getObjectId());
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                dropped++;
+            }
+        };
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        InboundQueue queue = new InboundQueue(executor, 2, ParseLiveQueryClient.OverflowPolicy.DROP_OLDEST, handler);
+        queue.offer(event("create", "a"), 1);
+        queue.offer(event("create", "b"), 1);
+        queue.offer(event("create", "c"), 1);
+        runPendingTasks();
+
+        assertEquals(Arrays.asList("create:b", "create:c"), handled);
+        assertEquals(1, dropped);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        InboundQueue queue = new InboundQueue(executor, 2, ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST, handler);
+        queue.offer(event("create", "a"), 1);
+        queue.offer(event("create", "b"), 1);
+        queue.offer(event("create", "c"), 1);
+        runPendingTasks();
+
+        assertEquals(Arrays.asList("create:a", "create:b"), handled);
+        assertEquals(1, dropped);
+    }
+
+    @Test
+    public void testCoalesceKeepsEventTypeOfPendingEvent() throws Exception {
+        InboundQueue queue = new InboundQueue(executor, 2, ParseLiveQueryClient.OverflowPolicy.COALESCE, handler);
+        queue.offer(event("create", "a"), 1);
+        queue.offer(event("update", "b"), 1);
+        queue.offer(event("update", "a"), 1);
+        queue.offer(event("delete", "b"), 1);
+        runPendingTasks();
+
+        assertEquals(Arrays.asList("create:a", "delete:b"), handled);
+        assertEquals(2, dropped);
+    }
+
+    @Test
+    public void testCoalesceDropsOldestWhenNothingToMergeWith() throws Exception {
+        InboundQueue queue = new InboundQueue(executor, 1, ParseLiveQueryClient.OverflowPolicy.COALESCE, handler);
+        queue.offer(event("update", "a"), 1);
+        queue.offer(event("update", "b"), 1);
+        runPendingTasks();
+
+        assertEquals(Arrays.asList("update:b"), handled);
+        assertEquals(1, dropped);
+    }
+
+    @Test
+    public void testControlMessagesAreNeverDropped() throws Exception {
+        InboundQueue queue = new InboundQueue(executor, 1, ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST, handler);
+        queue.offer(event("create", "a"), 1);
+        queue.offer(ServerMessage.parse("{\"op\":\"subscribed\",\"requestId\":2}", ACCEPT_ALL), 2);
+        runPendingTasks();
+
+        assertEquals(Arrays.asList("create:a", "subscribed:null"), handled);
+        assertEquals(0, dropped);
+    }
+
+    @Test
+    public void testDepthReportedWhenQueuedAndTaken() throws Exception {
+        InMemoryLiveQueryMetrics metrics = new InMemoryLiveQueryMetrics();
+        InboundQueue queue = new InboundQueue(executor, 10, ParseLiveQueryClient.OverflowPolicy.DROP_OLDEST, handler, metrics);
+        queue.offer(event("create", "a"), 1);
+        queue.offer(event("create", "b"), 1);
+        assertEquals(2, metrics.getInboundQueueDepth());
+
+        runPendingTasks();
+        assertEquals(0, metrics.getInboundQueueDepth());
+        assertEquals(2, metrics.getMaxInboundQueueDepth());
+    }
+
+    private void runPendingTasks() {
+        while (!pendingTasks.isEmpty()) {
+            pendingTasks.remove(0).run();
+        }
+    }
+
+    private static ServerMessage event(String op, String objectId) throws JSONException {
+        return ServerMessage.parse("{\"op\":\"" + op + "\",\"requestId\":1,\"object\":{\"className\":\"Test\",\"objectId\":\""
+                + objectId + "\"}}", ACCEPT_ALL);
+    }
+}
@@ -0,0 +1,66 @@
+package com.parse.livequery;
+
+import android.util.JsonWriter;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.StringWriter;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestJsonLiveQueryCodec {
+
+    @Test
+    public void testEncodeOperations() throws Exception {
+        JsonLiveQueryCodec codec = new JsonLiveQueryCodec();
+        assertEquals("{\"op\":\"connect\",\"applicationId\":\"app\",\"sessionToken\":\"token\"}",
+                codec.encode(new ConnectClientOperation("app", "token")));
+        // The buffer is reused, nothing of the previous message is left in it
+        assertEquals("{\"op\":\"unsubscribe\",\"requestId\":7}",
+                codec.encode(new UnsubscribeClientOperation(7)));
+    }
+
+    @Test
+    public void testEncodeOmitsMissingSessionToken() throws Exception {
+        assertEquals("{\"op\":\"connect\",\"applicationId\":\"app\"}",
+                new JsonLiveQueryCodec().encode(new ConnectClientOperation("app", null)));
+    }
+
+    @Test
+    public void testEncodeSubscribeSplicesEncodedQuery() throws Exception {
+        JsonLiveQueryCodec codec = new JsonLiveQueryCodec();
+        ParseQuery.State<ParseObject> state = new ParseQuery<>("Test").whereEqualTo("foo", "bar").getBuilder().build();
+
+        String encodedQuery = codec.encodeQuery(state);
+        assertEquals(codec.encode(new SubscribeClientOperation<>(7, state, "token")),
+                codec.encode(new SubscribeClientOperation<>(7, state, encodedQuery, "token")));
+    }
+
+    @Test
+    public void testWriteValueMatchesJSONObject() throws Exception {
+        JSONObject value = new JSONObject()
+                .put("string", "a \"quoted\" value")
+                .put("int", 1)
+                .put("double", 1.5)
+                .put("boolean", true)
+                .put("null", JSONObject.NULL)
+                .put("array", new JSONArray().put(1).put("two").put(new JSONObject().put("three", 3)));
+
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        JsonLiveQueryCodec.writeValue(writer, value);
+        writer.flush();
+
+        assertEquals(value.toString(), new JSONObject(out.toString()).toString());
+    }
+}
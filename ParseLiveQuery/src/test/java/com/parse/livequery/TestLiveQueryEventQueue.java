@@ -0,0 +1,178 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestLiveQueryEventQueue {
+
+    private final ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    private final Subscription<ParseObject> subscription = new Subscription<>(1, query, null);
+
+    @Test
+    public void testDrainsInOrder() throws Exception {
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription);
+        for (int i = 0; i < 5; i++) {
+            receive("object" + i);
+        }
+        assertEquals(5, queue.size());
+
+        assertEquals("object0", queue.poll().getObjectId());
+        List<LiveQueryEvent<ParseObject>> batch = new ArrayList<>();
+        assertEquals(3, queue.drainTo(batch, 3));
+        assertEquals("object1", batch.get(0).getObjectId());
+        assertEquals("object3", batch.get(2).getObjectId());
+        assertEquals(1, queue.drainTo(batch, 10));
+        assertEquals("object4", batch.get(3).getObjectId());
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws Exception {
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription, 2,
+                ParseLiveQueryClient.OverflowPolicy.DROP_OLDEST);
+        receive("a");
+        receive("b");
+        receive("c");
+
+        assertEquals(1, queue.getDroppedEventCount());
+        assertEquals("b", queue.poll().getObjectId());
+        assertEquals("c", queue.poll().getObjectId());
+    }
+
+    @Test
+    public void testDropNewestWhenFull() throws Exception {
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription, 2,
+                ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST);
+        receive("a");
+        receive("b");
+        receive("c");
+
+        assertEquals(1, queue.getDroppedEventCount());
+        assertEquals("a", queue.poll().getObjectId());
+        assertEquals("b", queue.poll().getObjectId());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testTakeWaitsForEvent() throws Exception {
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    receive("a");
+                } catch (InterruptedException | JSONException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        assertEquals("a", queue.take().getObjectId());
+        producer.join();
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription, 1,
+                ParseLiveQueryClient.OverflowPolicy.BLOCK);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    receive("a");
+                    receive("b");
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        assertEquals("a", queue.take().getObjectId());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals("b", queue.poll().getObjectId());
+        assertEquals(0, queue.getDroppedEventCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCoalesceNotSupported() {
+        new LiveQueryEventQueue<>(subscription, 10, ParseLiveQueryClient.OverflowPolicy.COALESCE);
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumer() throws Exception {
+        final int producerCount = 4;
+        final int eventsPerProducer = 10000;
+        LiveQueryEventQueue<ParseObject> queue = new LiveQueryEventQueue<>(subscription, 64,
+                ParseLiveQueryClient.OverflowPolicy.BLOCK);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < producerCount; i++) {
+            final int producer = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < eventsPerProducer; j++) {
+                            receive(producer + ":" + j);
+                        }
+                    } catch (JSONException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        // Every event arrives exactly once
+        Set<String> objectIds = new HashSet<>();
+        List<LiveQueryEvent<ParseObject>> batch = new ArrayList<>();
+        while (objectIds.size() < producerCount * eventsPerProducer) {
+            LiveQueryEvent<ParseObject> event = queue.poll(5, TimeUnit.SECONDS);
+            assertTrue(event != null);
+            assertTrue(objectIds.add(event.getObjectId()));
+            batch.clear();
+            queue.drainTo(batch, 100);
+            for (LiveQueryEvent<ParseObject> drained : batch) {
+                assertTrue(objectIds.add(drained.getObjectId()));
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(queue.poll());
+    }
+
+    private void receive(String objectId) throws JSONException {
+        subscription.didReceive(new LiveQueryEvent<ParseObject>(SubscriptionHandling.Event.CREATE,
+                new JSONObject().put("objectId", objectId), null), query);
+    }
+}
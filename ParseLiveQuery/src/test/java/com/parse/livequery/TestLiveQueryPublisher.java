@@ -0,0 +1,220 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Subscriber;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestLiveQueryPublisher {
+
+    private final ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+    private final Subscription<ParseObject> subscription = new Subscription<>(1, query, null);
+
+    @Test
+    public void testDeliversOnlyRequestedEvents() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        receive(SubscriptionHandling.Event.CREATE, "b", 1);
+        receive(SubscriptionHandling.Event.CREATE, "c", 1);
+        assertEquals(2, subscriber.events.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(3, subscriber.events.size());
+        assertEquals("c", subscriber.events.get(2).getObjectId());
+    }
+
+    @Test
+    public void testCoalescesEventsOfAnObjectWhenBufferFull() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription, 2,
+                ParseLiveQueryClient.OverflowPolicy.COALESCE);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        receive(SubscriptionHandling.Event.CREATE, "b", 1);
+        receive(SubscriptionHandling.Event.UPDATE, "a", 2);
+        // Nothing to coalesce with, so the oldest event, which "a" was coalesced into, is dropped
+        receive(SubscriptionHandling.Event.UPDATE, "c", 1);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.events.size());
+        assertEquals("b", subscriber.events.get(0).getObjectId());
+        assertEquals("c", subscriber.events.get(1).getObjectId());
+    }
+
+    @Test
+    public void testUpdateCoalescedIntoCreateKeepsCreate() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription, 1,
+                ParseLiveQueryClient.OverflowPolicy.COALESCE);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        receive(SubscriptionHandling.Event.UPDATE, "a", 2);
+        subscriber.subscription.request(1);
+
+        assertEquals(1, subscriber.events.size());
+        assertEquals(SubscriptionHandling.Event.CREATE, subscriber.events.get(0).getEvent());
+        assertEquals(2, subscriber.events.get(0).getReceivedNanos());
+    }
+
+    @Test
+    public void testDropNewestWhenBufferFull() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription, 1,
+                ParseLiveQueryClient.OverflowPolicy.DROP_NEWEST);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        receive(SubscriptionHandling.Event.CREATE, "b", 1);
+        subscriber.subscription.request(2);
+
+        assertEquals(1, subscriber.events.size());
+        assertEquals("a", subscriber.events.get(0).getObjectId());
+    }
+
+    @Test
+    public void testBlocksUntilRequested() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription, 1,
+                ParseLiveQueryClient.OverflowPolicy.BLOCK);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    receive(SubscriptionHandling.Event.CREATE, "a", 1);
+                    receive(SubscriptionHandling.Event.CREATE, "b", 1);
+                } catch (JSONException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        dispatcher.start();
+        dispatcher.join(100);
+        assertTrue(dispatcher.isAlive());
+
+        subscriber.subscription.request(2);
+        dispatcher.join(1000);
+        assertFalse(dispatcher.isAlive());
+        assertEquals(2, subscriber.events.size());
+    }
+
+    @Test
+    public void testCompletesAfterBufferedEventsOnUnsubscribe() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        subscription.didUnsubscribe(query);
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertTrue(subscriber.completed);
+
+        // Subscribers that come too late complete right away
+        RecordingSubscriber lateSubscriber = new RecordingSubscriber();
+        publisher.subscribe(lateSubscriber);
+        assertTrue(lateSubscriber.completed);
+    }
+
+    @Test
+    public void testFailsOnSubscriptionError() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        LiveQueryException error = new LiveQueryException.InvalidResponseException("test");
+        subscription.didEncounter(error, query);
+        assertEquals(error, subscriber.error);
+
+        // No signal follows a terminal one
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        subscriber.subscription.request(1);
+        assertEquals(0, subscriber.events.size());
+    }
+
+    @Test
+    public void testNonPositiveRequestFails() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testCancelStopsDelivery() throws Exception {
+        LiveQueryPublisher<ParseObject> publisher = new LiveQueryPublisher<>(subscription);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        receive(SubscriptionHandling.Event.CREATE, "a", 1);
+        subscriber.subscription.cancel();
+        receive(SubscriptionHandling.Event.CREATE, "b", 1);
+        subscription.didUnsubscribe(query);
+
+        assertEquals(1, subscriber.events.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    // The received time stands in for the state of the object, which is not decoded
+    private void receive(SubscriptionHandling.Event event, String objectId, long receivedNanos) throws JSONException {
+        subscription.didReceive(new LiveQueryEvent<ParseObject>(event, new JSONObject().put("objectId", objectId),
+                null, receivedNanos), query);
+    }
+
+    private static class RecordingSubscriber implements Subscriber<LiveQueryEvent<ParseObject>> {
+
+        private org.reactivestreams.Subscription subscription;
+        private final List<LiveQueryEvent<ParseObject>> events = new ArrayList<>();
+        private volatile boolean completed = false;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(org.reactivestreams.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(LiveQueryEvent<ParseObject> event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.parse.livequery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestReconnectScheduler {
+
+    private final List<Runnable> scheduledTasks = new ArrayList<>();
+
+    @Test
+    public void testDelayIsBoundedByExponentialCeiling() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(100, 1000, 10, mockExecutor(), new Random(42));
+
+        long ceiling = 100;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long delay = scheduler.nextDelayMillis();
+            assertTrue(delay >= 0 && delay <= Math.min(ceiling, 1000));
+            assertTrue(scheduler.schedule(mock(Runnable.class)));
+            runScheduledTasks();
+            ceiling *= 2;
+        }
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        ScheduledExecutorService executor = mockExecutor();
+        ReconnectScheduler scheduler = new ReconnectScheduler(100, 1000, 2, executor, new Random(42));
+
+        assertTrue(scheduler.schedule(mock(Runnable.class)));
+        runScheduledTasks();
+        assertTrue(scheduler.schedule(mock(Runnable.class)));
+        runScheduledTasks();
+        assertFalse(scheduler.schedule(mock(Runnable.class)));
+        verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        scheduler.reset();
+        assertTrue(scheduler.schedule(mock(Runnable.class)));
+    }
+
+    @Test
+    public void testDoesNotScheduleTwice() {
+        ScheduledExecutorService executor = mockExecutor();
+        ReconnectScheduler scheduler = new ReconnectScheduler(100, 1000, 10, executor, new Random(42));
+
+        assertTrue(scheduler.schedule(mock(Runnable.class)));
+        assertTrue(scheduler.schedule(mock(Runnable.class)));
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRunningAttemptCanScheduleNext() {
+        ScheduledExecutorService executor = mockExecutor();
+        final ReconnectScheduler scheduler = new ReconnectScheduler(100, 1000, 10, executor, new Random(42));
+
+        // As when the new socket fails before the attempt returns
+        assertTrue(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(scheduler.schedule(mock(Runnable.class)));
+            }
+        }));
+        runScheduledTasks();
+        verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancelledAttemptDoesNotRun() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(100, 1000, 10, mockExecutor(), new Random(42));
+        Runnable reconnect = mock(Runnable.class);
+
+        assertTrue(scheduler.schedule(reconnect));
+        scheduler.cancel();
+        // Already due when it was cancelled
+        runScheduledTasks();
+        verify(reconnect, never()).run();
+    }
+
+    @Test
+    public void testDisabledWithoutAttempts() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(0, 0, 0, mockExecutor(), new Random(42));
+
+        assertFalse(scheduler.isEnabled());
+        assertFalse(scheduler.schedule(mock(Runnable.class)));
+        assertEquals(0, scheduledTasks.size());
+    }
+
+    private ScheduledExecutorService mockExecutor() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<ScheduledFuture<?>>() {
+            @Override
+            public ScheduledFuture<?> answer(InvocationOnMock invocation) {
+                scheduledTasks.add((Runnable) invocation.getArguments()[0]);
+                return mock(ScheduledFuture.class);
+            }
+        }).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        return executor;
+    }
+
+    private void runScheduledTasks() {
+        List<Runnable> tasks = new ArrayList<>(scheduledTasks);
+        scheduledTasks.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.parse.livequery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestRoundTripEstimator {
+
+    @Test
+    public void testFirstSampleIsTakenAsIs() {
+        RoundTripEstimator estimator = new RoundTripEstimator();
+        assertEquals(-1, estimator.getNanos());
+        estimator.sample(800);
+        assertEquals(800, estimator.getNanos());
+    }
+
+    @Test
+    public void testLaterSamplesMoveEstimateAnEighth() {
+        RoundTripEstimator estimator = new RoundTripEstimator();
+        estimator.sample(800);
+        estimator.sample(1600);
+        assertEquals(900, estimator.getNanos());
+        estimator.sample(100);
+        assertEquals(800, estimator.getNanos());
+        // Clock hiccups are ignored
+        estimator.sample(-5);
+        assertEquals(800, estimator.getNanos());
+    }
+}
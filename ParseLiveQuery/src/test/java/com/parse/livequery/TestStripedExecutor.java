@@ -0,0 +1,120 @@
+package com.parse.livequery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestStripedExecutor {
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testTasksForSameKeyRunInOrder() throws Exception {
+        StripedExecutor stripedExecutor = new StripedExecutor(executorService, 4);
+        final int keys = 16;
+        final int tasksPerKey = 500;
+
+        final List<List<Integer>> results = new ArrayList<>();
+        for (int key = 0; key < keys; key++) {
+            results.add(new ArrayList<Integer>());
+        }
+
+        final CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int key = 0; key < keys; key++) {
+                final List<Integer> result = results.get(key);
+                final int value = i;
+                stripedExecutor.forKey(key).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Unsynchronized on purpose: tasks for one key never run concurrently
+                        result.add(value);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> result : results) {
+            assertEquals(tasksPerKey, result.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, (int) result.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTasksForDifferentStripesRunInParallel() throws Exception {
+        StripedExecutor stripedExecutor = new StripedExecutor(executorService, 2);
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        stripedExecutor.forKey(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (released.await(10, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        stripedExecutor.forKey(1).execute(new Runnable() {
+            @Override
+            public void run() {
+                released.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStallStripe() throws Exception {
+        StripedExecutor stripedExecutor = new StripedExecutor(executorService, 1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        stripedExecutor.forKey(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("forced error");
+            }
+        });
+        stripedExecutor.forKey(0).execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,102 @@
+package com.parse.livequery;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TestSubscription {
+
+    private static final int REGISTERING_THREADS = 4;
+    private static final int CALLBACKS_PER_THREAD = 5000;
+
+    @Test
+    public void testCallbacksRegisteredWhileDispatching() throws Exception {
+        final ParseQuery<ParseObject> query = new ParseQuery<>("Test");
+        final Subscription<ParseObject> subscription = new Subscription<>(1, query, null);
+        final LiveQueryEvent<ParseObject> event = new LiveQueryEvent<>(SubscriptionHandling.Event.UPDATE,
+                new JSONObject().put("objectId", "testId"), null);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean registering = new AtomicBoolean(true);
+
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (registering.get()) {
+                        subscription.didReceive(event, query);
+                        subscription.didSubscribe(query);
+                        subscription.didEncounter(new LiveQueryException.InvalidResponseException("test"), query);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        dispatcher.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> registrars = new ArrayList<>();
+        for (int i = 0; i < REGISTERING_THREADS; i++) {
+            Thread registrar = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < CALLBACKS_PER_THREAD; j++) {
+                            subscription.handleLiveQueryEvents(new LiveQueryEventHandling.HandleLiveQueryEventsCallback<ParseObject>() {
+                                @Override
+                                public void onEvents(ParseQuery<ParseObject> query, LiveQueryEvent<ParseObject> event) {
+                                    calls.incrementAndGet();
+                                }
+                            });
+                            subscription.handleSubscribe(new SubscriptionHandling.HandleSubscribeCallback<ParseObject>() {
+                                @Override
+                                public void onSubscribe(ParseQuery<ParseObject> query) {
+                                }
+                            });
+                            subscription.handleError(new SubscriptionHandling.HandleErrorCallback<ParseObject>() {
+                                @Override
+                                public void onError(ParseQuery<ParseObject> query, LiveQueryException exception) {
+                                }
+                            });
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            registrar.start();
+            registrars.add(registrar);
+        }
+        start.countDown();
+        for (Thread registrar : registrars) {
+            registrar.join();
+        }
+        registering.set(false);
+        dispatcher.join();
+        assertNull(failure.get());
+
+        // Every callback registered before a dispatch receives it exactly once
+        calls.set(0);
+        subscription.didReceive(event, query);
+        assertEquals(REGISTERING_THREADS * CALLBACKS_PER_THREAD, calls.get());
+    }
+}